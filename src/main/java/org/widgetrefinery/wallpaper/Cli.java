@@ -21,7 +21,9 @@ import org.widgetrefinery.util.BadUserInputException;
 import org.widgetrefinery.util.cl.*;
 import org.widgetrefinery.util.event.EventBus;
 import org.widgetrefinery.util.lang.Translator;
+import org.widgetrefinery.wallpaper.common.DesktopInfo;
 import org.widgetrefinery.wallpaper.common.Model;
+import org.widgetrefinery.wallpaper.common.ResampleFilter;
 import org.widgetrefinery.wallpaper.common.WallpaperTranslationKey;
 import org.widgetrefinery.wallpaper.swing.MainWindow;
 
@@ -48,6 +50,12 @@ public class Cli extends AbstractCli {
     @Override
     protected void processCommandLine(final String[] args) throws IOException {
         CLParser clParser = new CLParser(args,
+                                         new Argument("b|band-budget",
+                                                      new StringArgumentType(),
+                                                      Translator.get(WallpaperTranslationKey.CL_OPT_BAND_BUDGET_DESC)),
+                                         new Argument("C|cache-size",
+                                                      new StringArgumentType(),
+                                                      Translator.get(WallpaperTranslationKey.CL_OPT_CACHE_SIZE_DESC)),
                                          new Argument("c|configure",
                                                       new BooleanArgumentType(),
                                                       Translator.get(WallpaperTranslationKey.CL_OPT_CONFIGURE_DESC)),
@@ -66,22 +74,47 @@ public class Cli extends AbstractCli {
                                          new Argument("L|full-license",
                                                       new BooleanArgumentType(),
                                                       Translator.get(WallpaperTranslationKey.CL_OPT_LICENSE_DESC)),
+                                         new Argument("O|layouts",
+                                                      new StringArgumentType(),
+                                                      Translator.get(WallpaperTranslationKey.CL_OPT_LAYOUTS_DESC)),
                                          new Argument("o|output",
                                                       new StringArgumentType(),
                                                       Translator.get(WallpaperTranslationKey.CL_OPT_OUTPUT_DESC)),
                                          new Argument("r|refresh",
                                                       new BooleanArgumentType(),
                                                       Translator.get(WallpaperTranslationKey.CL_OPT_REFRESH_DESC)),
+                                         new Argument("T|render-threads",
+                                                      new StringArgumentType(),
+                                                      Translator.get(WallpaperTranslationKey.CL_OPT_RENDER_THREADS_DESC)),
+                                         new Argument("s|scale",
+                                                      new StringArgumentType(),
+                                                      Translator.get(WallpaperTranslationKey.CL_OPT_SCALE_DESC)),
                                          new Argument("v|version",
                                                       new BooleanArgumentType(),
                                                       Translator.get(WallpaperTranslationKey.CL_OPT_VERSION_DESC)));
-        if (clParser.hasArguments()) {
+        if (clParser.hasArguments() && !isGuiOnly(clParser)) {
             doTui(clParser);
         } else {
             doGui(clParser);
         }
     }
 
+    /**
+     * Checks if the only arguments given are ones that configure the GUI, in
+     * which case the GUI should be started rather than the TUI.
+     *
+     * @param clParser parsed command line
+     * @return true if only GUI arguments were given
+     */
+    protected boolean isGuiOnly(final CLParser clParser) {
+        return (null != clParser.getValue("cache-size") || null != clParser.getValue("render-threads")) &&
+               null == clParser.getValue("input") &&
+               Boolean.TRUE != clParser.getValue("help") &&
+               Boolean.TRUE != clParser.getValue("license") &&
+               Boolean.TRUE != clParser.getValue("full-license") &&
+               Boolean.TRUE != clParser.getValue("version");
+    }
+
     protected void doTui(final CLParser clParser) throws IOException {
         if (Boolean.TRUE == clParser.getValue("help")) {
             System.err.println(clParser.getHelpMessage(Cli.class));
@@ -103,9 +136,24 @@ public class Cli extends AbstractCli {
         EventBus eventBus = new EventBus();
         Model model = new Model(eventBus);
         model.setInputFile(new File(clParser.<String>getValue("input")));
-        model.setOutputFile(new File(clParser.<String>getValue("output")));
+        String output = clParser.getValue("output");
+        if (null != output) {
+            model.setOutputFile(new File(output));
+        }
+        String layouts = clParser.getValue("layouts");
+        if (null != layouts) {
+            addLayouts(model, layouts);
+        }
         model.setConfigOS(Boolean.TRUE == clParser.getValue("configure"));
         model.setRefreshOS(Boolean.TRUE == clParser.getValue("refresh"));
+        String scale = clParser.getValue("scale");
+        if (null != scale) {
+            model.setResampleFilter(ResampleFilter.fromName(scale));
+        }
+        String bandBudget = clParser.getValue("band-budget");
+        if (null != bandBudget) {
+            model.setBandBudget(parsePositive(bandBudget, WallpaperTranslationKey.PROCESS_ERROR_BAD_BAND_BUDGET));
+        }
         try {
             model.process(Boolean.TRUE == clParser.getValue("force"));
         } catch (BadUserInputException e) {
@@ -118,7 +166,51 @@ public class Cli extends AbstractCli {
         }
     }
 
+    /**
+     * Adds the outputs described by the given value to the model. Each output
+     * has the form "filename@layout", where the layout is understood by
+     * {@link org.widgetrefinery.wallpaper.common.DesktopInfo#parse(String)},
+     * and outputs are separated by semicolons.
+     *
+     * @param model model to update
+     * @param value list of outputs and layouts
+     */
+    protected void addLayouts(final Model model, final String value) {
+        for (String entry : value.split(";")) {
+            int ndx = entry.lastIndexOf('@');
+            if (0 >= ndx) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_LAYOUT, entry);
+            }
+            model.addLayout(new File(entry.substring(0, ndx).trim()), DesktopInfo.parse(entry.substring(ndx + 1)));
+        }
+    }
+
+    /**
+     * Parses a positive integer, such as a number of megabytes or threads.
+     *
+     * @param value    value to parse
+     * @param errorKey error to report if the value is not a positive integer
+     * @return parsed value
+     * @throws BadUserInputException if the value is not a positive integer
+     */
+    protected int parsePositive(final String value, final WallpaperTranslationKey errorKey) {
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (0 < result) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            logger.log(Level.FINE, "invalid positive number", e);
+        }
+        throw new BadUserInputException(errorKey, value);
+    }
+
     protected void doGui(final CLParser clParser) {
+        //bad values are reported here, before the event dispatch thread takes over
+        String cacheSizeValue = clParser.getValue("cache-size");
+        final int cacheSize = null != cacheSizeValue ? parsePositive(cacheSizeValue, WallpaperTranslationKey.PROCESS_ERROR_BAD_CACHE_SIZE) : 0;
+        String renderThreadsValue = clParser.getValue("render-threads");
+        final int renderThreads = null != renderThreadsValue ? parsePositive(renderThreadsValue, WallpaperTranslationKey.PROCESS_ERROR_BAD_RENDER_THREADS) : 0;
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -131,6 +223,8 @@ public class Cli extends AbstractCli {
                 } else {
                     model = new Model(eventBus);
                 }
+                model.setCacheSize(cacheSize);
+                model.setRenderThreads(renderThreads);
                 MainWindow mainWindow = new MainWindow(eventBus, model);
                 mainWindow.setVisible(true);
             }
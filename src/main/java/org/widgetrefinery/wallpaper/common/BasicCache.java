@@ -17,136 +17,449 @@
 
 package org.widgetrefinery.wallpaper.common;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.text.MessageFormat;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A simple in-memory cache for holding frequently used data. The cache will
- * continue to grow until the amount of free memory drops below one of two
- * thresholds. The cache will purge items based on a least-recently-used policy
- * until the JVM memory drops below both thresholds.
+ * A simple in-memory cache for holding frequently used data. Every value has
+ * a weight, in bytes, given by {@link #sizeOf(Object)}. The cache keeps a
+ * running total of those weights and, whenever a put pushes the total over
+ * the byte budget, purges items until the total is back within the budget.
  * <p/>
- * The first threshold specifies a fixed amount of free memory, in bytes. The
- * default threshold is 20 megabytes. This means the cache will purge items
- * until the JVM has at least 20 megabytes of free memory.
+ * Which items are purged is up to the {@link EvictionPolicy}. The default,
+ * {@link LruPolicy}, purges the least recently used item. Other policies pick
+ * the lowest scoring of the few least recently used items, and may refuse a
+ * new item outright; see {@link TinyLfuPolicy}. Callers that know how long a
+ * value took to create can pass that cost to {@link #put(Object, Object, long)}
+ * so cost-aware policies can favour expensive values. The hit, miss and
+ * eviction counters make it possible to compare policies on real workloads.
  * <p/>
- * The second threshold specifies a percentage amount of free memory. The
- * default threshold is 20%. This means the cache will purge items until the
- * JVM has at least 20% free memory. The ratio is computed between the amount
- * of free memory and the maximum memory the JVM can grow up to (-Xmx on the
- * command line).
+ * The default budget is a quarter of the maximum memory the JVM can grow up
+ * to (-Xmx on the command line). The default weight of a
+ * {@link java.awt.image.BufferedImage} is the size of its raster's data
+ * buffer; subclasses holding other kinds of values should override
+ * {@link #sizeOf(Object)}. The weight of a value must not change while it is
+ * in the cache.
  * <p/>
- * The cache is based on {@link java.util.LinkedHashMap}. This means you will
- * need to wrap it with {@link java.util.Collections#synchronizedMap(java.util.Map)}
- * if you plan to use it with multiple threads. Unlike LinkedHashMap, the call
- * to {@link #get(Object)} will also cause the cache to check the memory
- * thresholds and resize as appropriate.
+ * The cache is safe to use from multiple threads, and {@link #get(Object)}
+ * never waits on a lock. Entries live in a
+ * {@link java.util.concurrent.ConcurrentHashMap}; the least-recently-used
+ * order is a linked list that only writers touch while holding the eviction
+ * lock. Reads are recorded in a small ring buffer which is replayed onto the
+ * list by the next writer, or by a reader that finds the lock free once the
+ * buffer is half full. When reads outpace the replay the oldest recorded
+ * reads are overwritten, so the order is approximate under heavy load.
  *
- * @see java.lang.Runtime
- * @see java.util.LinkedHashMap
  * @since 4/20/12 12:00 AM
  */
-public class BasicCache<K, V> extends LinkedHashMap<K, V> {
-    private static final Logger logger                       = Logger.getLogger(BasicCache.class.getName());
-    private static final int    DEFAULT_FIXED_THRESHOLD      = 20 * 1024 * 1024; //20 megabytes
-    private static final int    DEFAULT_PERCENTAGE_THRESHOLD = 20;
-    private static final int    INITIAL_CAPACITY             = 100;
-    private static final float  LOAD_FACTOR                  = 0.75F; //default LinkedHashMap load factor according to jdk javadoc
+public class BasicCache<K, V> {
+    private static final Logger logger                 = Logger.getLogger(BasicCache.class.getName());
+    private static final int    DEFAULT_BUDGET_DIVISOR = 4;
+    private static final long   DEFAULT_VALUE_SIZE     = 1;
+    private static final int    READ_BUFFER_SIZE       = 128; //must be a power of 2
+    private static final int    READ_BUFFER_MASK       = READ_BUFFER_SIZE - 1;
+    private static final int    READ_DRAIN_THRESHOLD   = READ_BUFFER_SIZE / 2;
+    private static final int    VICTIM_SAMPLE_SIZE     = 8;
 
-    private final int fixedThreshold;
-    private final int percentageThreshold;
+    private final    long                             budget;
+    private final    EvictionPolicy<K>                policy;
+    private final    ConcurrentMap<K, Node<K, V>>     data;
+    private final    ReentrantLock                    evictionLock;
+    private final    Node<K, V>                       head;
+    private final    AtomicReferenceArray<Node<K, V>> readBuffer;
+    private final    AtomicLong                       readCount;
+    private final    AtomicLong                       hitCount;
+    private final    AtomicLong                       missCount;
+    private final    AtomicLong                       evictionCount;
+    private          long                             drainCount;
+    private volatile long                             weight;
 
     /**
-     * Creates a new instance using the default memory thresholds. The default
-     * fixed threshold is 20 megabytes. The default percentage threshold is
-     * 20%.
+     * Creates a new instance using the default byte budget, which is a quarter
+     * of the maximum JVM memory.
      */
     public BasicCache() {
-        this(DEFAULT_FIXED_THRESHOLD, DEFAULT_PERCENTAGE_THRESHOLD);
+        this(0);
     }
 
     /**
-     * Creates a new instance using the given memory thresholds.
+     * Creates a new instance using the given byte budget and LRU eviction.
      *
-     * @param fixedThreshold      fixed memory threshold, in bytes
-     * @param percentageThreshold percentage free memory threshold
+     * @param budget maximum total weight of the cached values, in bytes; zero
+     *               or less selects the default budget
      */
-    public BasicCache(final int fixedThreshold, final int percentageThreshold) {
-        super(INITIAL_CAPACITY, LOAD_FACTOR, true);
-        this.fixedThreshold = fixedThreshold;
-        this.percentageThreshold = percentageThreshold;
+    public BasicCache(final long budget) {
+        this(budget, new LruPolicy<K>());
+    }
+
+    /**
+     * Creates a new instance using the given byte budget and eviction policy.
+     *
+     * @param budget maximum total weight of the cached values, in bytes; zero
+     *               or less selects the default budget
+     * @param policy decides which items to purge
+     */
+    public BasicCache(final long budget, final EvictionPolicy<K> policy) {
+        this.budget = 0 < budget ? budget : getDefaultBudget();
+        this.policy = policy;
+        this.data = new ConcurrentHashMap<K, Node<K, V>>();
+        this.evictionLock = new ReentrantLock();
+        this.head = new Node<K, V>(null, null, 0, 0);
+        this.head.prev = this.head;
+        this.head.next = this.head;
+        this.readBuffer = new AtomicReferenceArray<Node<K, V>>(READ_BUFFER_SIZE);
+        this.readCount = new AtomicLong();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.evictionCount = new AtomicLong();
+    }
+
+    /**
+     * Computes the default byte budget, which is a quarter of the maximum JVM
+     * memory.
+     *
+     * @return default byte budget
+     */
+    public static long getDefaultBudget() {
+        return Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR;
+    }
+
+    /**
+     * Computes the number of bytes held by the given image's data buffer.
+     *
+     * @param image image to measure
+     * @return size of the image data, in bytes
+     */
+    public static long sizeOf(final BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        long bits = (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType());
+        return (bits + 7) / 8;
+    }
+
+    /**
+     * Computes the weight of the given value, in bytes. Images are weighed by
+     * their data buffer; anything else weighs a single byte.
+     *
+     * @param value value to weigh
+     * @return weight of the value, in bytes
+     */
+    protected long sizeOf(final V value) {
+        if (value instanceof BufferedImage) {
+            return sizeOf((BufferedImage) value);
+        }
+        return DEFAULT_VALUE_SIZE;
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+
+    public long getWeight() {
+        return this.weight;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of items purged to stay within the budget, including
+     * new items the eviction policy refused to admit.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    public int size() {
+        return this.data.size();
+    }
+
+    public boolean containsKey(final K key) {
+        return this.data.containsKey(key);
     }
 
     /**
      * Returns the value for the given key, or null if the key is not defined.
-     * Note, calling this method will cause the cache to resize as appropriate.
+     * This never blocks; the access is recorded for the LRU order later.
      *
      * @param key the key to look up
      * @return the value associated with the given key, or null
      */
-    @Override
-    public V get(final Object key) {
-        V value = super.get(key);
-        removeEldestEntry(null);
-        logger.fine("cache " + (null != value ? "hit" : "miss") + " on " + key);
-        return value;
+    public V get(final K key) {
+        Node<K, V> node = this.data.get(key);
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("cache " + (null != node ? "hit" : "miss") + " on " + key);
+        }
+        this.policy.recordAccess(key);
+        if (null == node) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        this.hitCount.incrementAndGet();
+        long count = this.readCount.getAndIncrement();
+        this.readBuffer.lazySet((int) (count & READ_BUFFER_MASK), node);
+        if (0 == ((count + 1) & (READ_DRAIN_THRESHOLD - 1)) && this.evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                this.evictionLock.unlock();
+            }
+        }
+        return node.value;
     }
 
     /**
-     * This will remove items based on a least-recently-used policy to stay
-     * within the given memory thresholds.
+     * Returns the value for the given key without counting it as a use. This
+     * is for callers that only need to know if a value is present, such as a
+     * prefetcher, and should not make the value look more popular.
      *
-     * @param eldest least recently accessed entry in the map
-     * @return always false
+     * @param key the key to look up
+     * @return the value associated with the given key, or null
      */
-    @Override
-    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
-        Iterator<K> itr = keySet().iterator();
-        int count = 0;
-        long freeMemory = getFreeMemory();
-        long maxMemory = getMaxMemory();
-        while (itr.hasNext() && (freeMemory < this.fixedThreshold || freeMemory * 100 / maxMemory < this.percentageThreshold)) {
-            itr.next();
-            itr.remove();
-            count++;
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine(MessageFormat.format("free: {0}, max: {1}, fixed: {2}, %: {3}",
-                                                 freeMemory,
-                                                 maxMemory,
-                                                 this.fixedThreshold,
-                                                 this.percentageThreshold));
+    public V peek(final K key) {
+        Node<K, V> node = this.data.get(key);
+        return null != node ? node.value : null;
+    }
+
+    /**
+     * Stores the given value and then purges the least recently used items
+     * until the cache is within its byte budget. A value heavier than the
+     * whole budget is not stored at all; any previous value for the key is
+     * removed and the other items are left alone.
+     *
+     * @param key   the key to store under
+     * @param value the value to store
+     * @return the previous value associated with the key, or null
+     */
+    public V put(final K key, final V value) {
+        return put(key, value, 0);
+    }
+
+    /**
+     * Stores the given value along with how long it took to create, and then
+     * purges items until the cache is within its byte budget. Unless it
+     * replaces an existing item, the new item may itself be purged if the
+     * eviction policy values it less than the items it would push out.
+     *
+     * @param key   the key to store under
+     * @param value the value to store
+     * @param cost  time taken to create the value, in nanoseconds
+     * @return the previous value associated with the key, or null
+     */
+    public V put(final K key, final V value, final long cost) {
+        return put(key, value, cost, true);
+    }
+
+    /**
+     * Stores the given value, like {@link #put(Object, Object, long)}, but
+     * lets the caller exempt it from admission. An exempt item is never
+     * purged in favour of the items it pushes out, which suits values that
+     * are needed right now and would only be created again if refused.
+     *
+     * @param key       the key to store under
+     * @param value     the value to store
+     * @param cost      time taken to create the value, in nanoseconds
+     * @param admission false to store the value whatever the eviction policy thinks of it
+     * @return the previous value associated with the key, or null
+     */
+    public V put(final K key, final V value, final long cost, final boolean admission) {
+        Node<K, V> node = new Node<K, V>(key, value, sizeOf(value), cost);
+        this.evictionLock.lock();
+        try {
+            drainReadBuffer();
+            if (node.weight > this.budget) {
+                //would push out everything else and still not fit
+                Node<K, V> previous = this.data.remove(key);
+                if (null != previous) {
+                    unlink(previous);
+                }
+                return null != previous ? previous.value : null;
+            }
+            Node<K, V> previous = this.data.put(key, node);
+            if (null != previous) {
+                unlink(previous);
+            }
+            link(node);
+            trimTo(this.budget, node, null == previous && admission);
+            return null != previous ? previous.value : null;
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    public V remove(final K key) {
+        this.evictionLock.lock();
+        try {
+            Node<K, V> previous = this.data.remove(key);
+            if (null == previous) {
+                return null;
             }
-            freeMemory = getFreeMemory();
-            maxMemory = getMaxMemory();
+            unlink(previous);
+            return previous.value;
+        } finally {
+            this.evictionLock.unlock();
         }
-        if (0 < count) {
-            logger.fine("purged " + count + " items");
+    }
+
+    public void clear() {
+        this.evictionLock.lock();
+        try {
+            for (Node<K, V> node = this.head.next; node != this.head; node = this.head.next) {
+                this.data.remove(node.key, node);
+                unlink(node);
+            }
+        } finally {
+            this.evictionLock.unlock();
         }
-        return false;
     }
 
     /**
-     * Computes the JVM free memory, in bytes. This is provided so that unit
-     * tests can alter how free memory is computed.
+     * Removes items chosen by the eviction policy until the total weight is
+     * at most the given number of bytes. This lets the owner of the
+     * cache give memory back when the JVM is under pressure.
      *
-     * @return JVM free memory in bytes
+     * @param target weight to trim down to, in bytes
+     * @see org.widgetrefinery.wallpaper.common.MemoryPressureMonitor
      */
-    protected long getFreeMemory() {
-        Runtime runtime = Runtime.getRuntime();
-        return runtime.freeMemory() + runtime.maxMemory() - runtime.totalMemory();
+    public void trim(final long target) {
+        this.evictionLock.lock();
+        try {
+            drainReadBuffer();
+            trimTo(target, null, false);
+        } finally {
+            this.evictionLock.unlock();
+        }
     }
 
     /**
-     * Computes the maximum JVM memory, in bytes. This is provided so that unit
-     * tests can alter how maximum memory is computed.
+     * Removes items until the total weight is at most the given number of
+     * bytes. Each victim is the lowest scoring of the few least recently used
+     * items, so each removal costs constant time. If a candidate is given, it
+     * is never picked as a victim; subject to admission, the eviction policy
+     * decides between it and each victim instead. The caller must hold the
+     * eviction lock.
      *
-     * @return JVM maximum memory in bytes
+     * @param target    weight to trim down to, in bytes
+     * @param candidate newly added item, or null
+     * @param admission true if the eviction policy may refuse the candidate
      */
-    protected long getMaxMemory() {
-        return Runtime.getRuntime().maxMemory();
+    protected void trimTo(final long target, final Node<K, V> candidate, final boolean admission) {
+        int count = 0;
+        Node<K, V> pending = candidate;
+        while (this.weight > target && this.head.next != this.head) {
+            Node<K, V> victim = selectVictim(pending);
+            if (null == victim) {
+                victim = pending;
+            } else if (null != pending && admission && !this.policy.isAdmitted(getScore(pending), getScore(victim))) {
+                victim = pending;
+            }
+            if (victim == pending) {
+                pending = null;
+            }
+            this.data.remove(victim.key, victim);
+            unlink(victim);
+            count++;
+        }
+        this.evictionCount.addAndGet(count);
+        if (0 < count && logger.isLoggable(Level.FINE)) {
+            logger.fine(MessageFormat.format("purged {0} items; weight: {1}, target: {2}", count, this.weight, target));
+        }
+    }
+
+    /**
+     * Finds the lowest scoring of the least recently used items, skipping the
+     * given candidate. Ties go to the least recently used item.
+     *
+     * @param candidate item to skip, or null
+     * @return item to evict, or null if the candidate is the only item
+     */
+    protected Node<K, V> selectVictim(final Node<K, V> candidate) {
+        Node<K, V> victim = null;
+        double victimScore = 0;
+        Node<K, V> node = this.head.next;
+        for (int ndx = 0; ndx < VICTIM_SAMPLE_SIZE && node != this.head; node = node.next) {
+            if (node == candidate) {
+                continue;
+            }
+            double score = getScore(node);
+            if (null == victim || score < victimScore) {
+                victim = node;
+                victimScore = score;
+            }
+            ndx++;
+        }
+        return victim;
+    }
+
+    private double getScore(final Node<K, V> node) {
+        return this.policy.getRetentionScore(node.key, node.weight, node.cost);
+    }
+
+    /**
+     * Replays the recorded reads onto the LRU list. Reads of entries that were
+     * removed in the meantime are ignored. The caller must hold the eviction
+     * lock.
+     */
+    protected void drainReadBuffer() {
+        long end = this.readCount.get();
+        long start = Math.max(this.drainCount, end - READ_BUFFER_SIZE);
+        for (long count = start; count < end; count++) {
+            Node<K, V> node = this.readBuffer.getAndSet((int) (count & READ_BUFFER_MASK), null);
+            if (null != node && null != node.next) {
+                unlink(node);
+                link(node);
+            }
+        }
+        this.drainCount = end;
+    }
+
+    private void link(final Node<K, V> node) {
+        node.prev = this.head.prev;
+        node.next = this.head;
+        this.head.prev.next = node;
+        this.head.prev = node;
+        this.weight += node.weight;
+    }
+
+    private void unlink(final Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        this.weight -= node.weight;
+    }
+
+    /**
+     * An entry in the cache. The links are only touched while holding the
+     * eviction lock; a null link means the entry has been removed.
+     */
+    protected static class Node<K, V> {
+        private final K          key;
+        private final V          value;
+        private final long       weight;
+        private final long       cost;
+        private       Node<K, V> prev;
+        private       Node<K, V> next;
+
+        public Node(final K key, final V value, final long weight, final long cost) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.cost = cost;
+        }
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets one thread stop an image decode running on another. The decoding code
+ * registers its {@link javax.imageio.ImageReader} while it reads, and
+ * {@link #cancel()} aborts that reader, so a large decode stops at the
+ * reader's next abort check rather than running to completion. Since a
+ * reader forgets an abort request when its next read starts, the reader is
+ * also aborted again from its progress events while the decode is
+ * cancelled. Once
+ * cancelled, the decoding code throws
+ * {@link java.util.concurrent.CancellationException} instead of returning a
+ * partial image.
+ *
+ * @see javax.imageio.ImageReader#abort()
+ * @since 10/18/26 5:00 PM
+ */
+public class Cancellation {
+    private volatile boolean                 cancelled;
+    private          ImageReader             reader;
+    private final    IIOReadProgressListener abortListener = new AbortListener();
+
+    /**
+     * Cancels the decode. If a reader is registered it is aborted; a reader
+     * registered later is aborted right away.
+     */
+    public synchronized void cancel() {
+        this.cancelled = true;
+        if (null != this.reader) {
+            this.reader.abort();
+        }
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Throws if the decode has been cancelled.
+     *
+     * @throws CancellationException if {@link #cancel()} has been called
+     */
+    public void check() throws CancellationException {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    protected synchronized void register(final ImageReader reader) {
+        this.reader = reader;
+        reader.addIIOReadProgressListener(this.abortListener);
+        if (this.cancelled) {
+            reader.abort();
+        }
+    }
+
+    protected synchronized void unregister(final ImageReader reader) {
+        reader.removeIIOReadProgressListener(this.abortListener);
+        if (this.reader == reader) {
+            this.reader = null;
+        }
+    }
+
+    /**
+     * Aborts a read that started after the decode was cancelled, since
+     * starting the read cleared the earlier abort request.
+     */
+    protected class AbortListener implements IIOReadProgressListener {
+        @Override
+        public void imageStarted(final ImageReader source, final int imageIndex) {
+            abortIfCancelled(source);
+        }
+
+        @Override
+        public void imageProgress(final ImageReader source, final float percentageDone) {
+            abortIfCancelled(source);
+        }
+
+        @Override
+        public void sequenceStarted(final ImageReader source, final int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(final ImageReader source) {
+        }
+
+        @Override
+        public void imageComplete(final ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(final ImageReader source, final int imageIndex, final int thumbnailIndex) {
+            abortIfCancelled(source);
+        }
+
+        @Override
+        public void thumbnailProgress(final ImageReader source, final float percentageDone) {
+            abortIfCancelled(source);
+        }
+
+        @Override
+        public void thumbnailComplete(final ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(final ImageReader source) {
+        }
+
+        protected void abortIfCancelled(final ImageReader source) {
+            if (Cancellation.this.cancelled) {
+                source.abort();
+            }
+        }
+    }
+}
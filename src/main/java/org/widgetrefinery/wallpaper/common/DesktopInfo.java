@@ -17,6 +17,8 @@
 
 package org.widgetrefinery.wallpaper.common;
 
+import org.widgetrefinery.util.BadUserInputException;
+
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
@@ -24,6 +26,8 @@ import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Utility class for discovering the current monitor layout.
@@ -31,6 +35,8 @@ import java.util.List;
  * @since 3/5/12 10:19 PM
  */
 public class DesktopInfo {
+    private static final Pattern GEOMETRY = Pattern.compile("(\\d{1,6})x(\\d{1,6})([+-]\\d{1,6})([+-]\\d{1,6})");
+
     private final List<Rectangle> monitors;
     private final Rectangle       bounds;
 
@@ -46,6 +52,58 @@ public class DesktopInfo {
         this.bounds = bounds;
     }
 
+    /**
+     * Creates a new instance that describes the given monitor layout instead
+     * of the current one.
+     *
+     * @param monitors dimensions of each monitor
+     */
+    public DesktopInfo(final List<Rectangle> monitors) {
+        List<Rectangle> copy = new ArrayList<Rectangle>();
+        Rectangle bounds = null;
+        for (Rectangle monitor : monitors) {
+            copy.add(new Rectangle(monitor));
+            if (null == bounds) {
+                bounds = new Rectangle(monitor);
+            } else {
+                bounds.add(monitor);
+            }
+        }
+        this.monitors = Collections.unmodifiableList(copy);
+        this.bounds = null != bounds ? bounds : new Rectangle();
+    }
+
+    /**
+     * Creates a new instance from a layout description such as
+     * "1920x1080+0+0,1280x1024-1280+0". Each monitor is described by its
+     * size and position in the same way as an X11 geometry, and monitors are
+     * separated by commas.
+     *
+     * @param layout layout description
+     * @return monitor layout
+     * @throws BadUserInputException if the layout description is invalid
+     */
+    public static DesktopInfo parse(final String layout) throws BadUserInputException {
+        List<Rectangle> monitors = new ArrayList<Rectangle>();
+        for (String geometry : layout.split(",")) {
+            Matcher matcher = GEOMETRY.matcher(geometry.trim());
+            if (!matcher.matches()) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_LAYOUT, layout);
+            }
+            int width = Integer.parseInt(matcher.group(1));
+            int height = Integer.parseInt(matcher.group(2));
+            if (0 >= width || 0 >= height) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_LAYOUT, layout);
+            }
+            monitors.add(new Rectangle(parseOffset(matcher.group(3)), parseOffset(matcher.group(4)), width, height));
+        }
+        return new DesktopInfo(monitors);
+    }
+
+    private static int parseOffset(final String offset) {
+        return Integer.parseInt('+' == offset.charAt(0) ? offset.substring(1) : offset);
+    }
+
     /**
      * Creates a new instance that describes the current monitor layout scaled
      * to within the given limits. If maxWidth is less than 1, then the layout
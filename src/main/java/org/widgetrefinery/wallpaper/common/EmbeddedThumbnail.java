@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.common;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the small preview image that cameras and editors embed in a JPEG
+ * file. JFIF extension thumbnails are handed out by the JPEG
+ * {@link javax.imageio.ImageReader} itself, while EXIF thumbnails, which
+ * are far more common, live in the APP1 segment that the reader skips. Only
+ * the header segments in front of the compressed image data are looked at,
+ * so finding a thumbnail costs a few KB of reading.
+ *
+ * @since 10/18/26 8:10 PM
+ */
+public class EmbeddedThumbnail {
+    private static final Logger logger           = Logger.getLogger(EmbeddedThumbnail.class.getName());
+    private static final int    MARKER_SOI       = 0xD8;
+    private static final int    MARKER_APP0      = 0xE0;
+    private static final int    MARKER_APP1      = 0xE1;
+    private static final int    MARKER_APP15     = 0xEF;
+    private static final int    MARKER_COM       = 0xFE;
+    private static final int    TAG_COMPRESSION  = 0x0103;
+    private static final int    TAG_JPEG_OFFSET  = 0x0201;
+    private static final int    TAG_JPEG_LENGTH  = 0x0202;
+    private static final int    COMPRESSION_JPEG = 6;
+    private static final int    TYPE_SHORT       = 3;
+
+    /**
+     * Reads the largest thumbnail embedded in the image the given reader is
+     * set up for. The reader must not have decoded anything yet, and its
+     * input must be an {@link javax.imageio.stream.ImageInputStream}
+     * positioned at the start of the file. A thumbnail that fails to decode
+     * is skipped, so that the caller falls back to the image itself.
+     *
+     * @param reader reader to read the thumbnail with
+     * @return embedded thumbnail or null if there is none
+     * @throws IOException if an error occurred reading the file
+     */
+    public static BufferedImage read(final ImageReader reader) throws IOException {
+        BufferedImage thumbnail = null;
+        if ("jpeg".equalsIgnoreCase(reader.getFormatName()) && reader.getInput() instanceof ImageInputStream) {
+            byte[] exif = findExifThumbnail((ImageInputStream) reader.getInput());
+            if (null != exif) {
+                try {
+                    thumbnail = ImageIO.read(new ByteArrayInputStream(exif));
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "skipping corrupt EXIF thumbnail", e);
+                } catch (RuntimeException e) {
+                    //the JPEG plugin throws these for some kinds of corrupt data too
+                    logger.log(Level.FINE, "skipping corrupt EXIF thumbnail", e);
+                }
+            }
+        }
+        int count = reader.getNumThumbnails(0);
+        for (int ndx = 0; ndx < count; ndx++) {
+            if (null == thumbnail || reader.getThumbnailWidth(0, ndx) > thumbnail.getWidth()) {
+                try {
+                    thumbnail = reader.readThumbnail(0, ndx);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "skipping corrupt JFIF thumbnail", e);
+                } catch (RuntimeException e) {
+                    //the JPEG plugin throws these for some kinds of corrupt data too
+                    logger.log(Level.FINE, "skipping corrupt JFIF thumbnail", e);
+                }
+            }
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Looks for an EXIF thumbnail among the APPn segments at the start of a
+     * JPEG stream and returns its compressed bytes. The stream is left where
+     * it was found, with its byte order unchanged.
+     *
+     * @param input JPEG stream positioned at the start of the file
+     * @return JPEG encoded thumbnail or null if there is none
+     * @throws IOException if an error occurred reading the stream
+     */
+    public static byte[] findExifThumbnail(final ImageInputStream input) throws IOException {
+        ByteOrder byteOrder = input.getByteOrder();
+        input.mark();
+        try {
+            input.setByteOrder(ByteOrder.BIG_ENDIAN);
+            if (0xFF != input.read() || MARKER_SOI != input.read()) {
+                return null;
+            }
+            while (true) {
+                int marker = readMarker(input);
+                if (MARKER_COM != marker && (MARKER_APP0 > marker || MARKER_APP15 < marker)) {
+                    return null; //the header segments are over
+                }
+                int length = input.readUnsignedShort() - 2;
+                if (0 > length) {
+                    return null;
+                }
+                long segmentStart = input.getStreamPosition();
+                if (MARKER_APP1 == marker && 14 <= length && isExifHeader(input)) {
+                    byte[] thumbnail = readExifThumbnail(input, input.getStreamPosition(), segmentStart + length);
+                    if (null != thumbnail) {
+                        return thumbnail;
+                    }
+                    //an Intel order TIFF header switches the byte order
+                    input.setByteOrder(ByteOrder.BIG_ENDIAN);
+                }
+                input.seek(segmentStart + length);
+            }
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            input.reset();
+            input.setByteOrder(byteOrder);
+        }
+    }
+
+    /**
+     * Reads the next marker code, skipping any fill bytes in front of it.
+     *
+     * @param input stream positioned at a marker
+     * @return marker code or -1 if the stream is not at a marker
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected static int readMarker(final ImageInputStream input) throws IOException {
+        if (0xFF != input.readUnsignedByte()) {
+            return -1;
+        }
+        int marker = input.readUnsignedByte();
+        while (0xFF == marker) {
+            marker = input.readUnsignedByte();
+        }
+        return marker;
+    }
+
+    protected static boolean isExifHeader(final ImageInputStream input) throws IOException {
+        byte[] header = new byte[6];
+        input.readFully(header);
+        return 'E' == header[0] && 'x' == header[1] && 'i' == header[2] && 'f' == header[3] && 0 == header[4] && 0 == header[5];
+    }
+
+    /**
+     * Walks the TIFF structure of an EXIF segment to the second IFD, which
+     * describes the thumbnail, and reads the thumbnail bytes it points at.
+     * Offsets outside the segment are treated as a missing thumbnail.
+     *
+     * @param input      stream positioned at the TIFF header
+     * @param tiffStart  stream position of the TIFF header
+     * @param segmentEnd stream position just past the segment
+     * @return JPEG encoded thumbnail or null if there is none
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected static byte[] readExifThumbnail(final ImageInputStream input, final long tiffStart, final long segmentEnd) throws IOException {
+        int order = input.readUnsignedShort();
+        if (0x4949 == order) {
+            input.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        } else if (0x4D4D != order) {
+            return null;
+        }
+        if (42 != input.readUnsignedShort()) {
+            return null;
+        }
+        long size = segmentEnd - tiffStart;
+        long ifd0 = input.readUnsignedInt();
+        if (ifd0 < 8 || ifd0 + 2 > size) {
+            return null;
+        }
+        input.seek(tiffStart + ifd0);
+        int entries = input.readUnsignedShort();
+        long next = ifd0 + 2 + entries * 12L;
+        if (next + 4 > size) {
+            return null;
+        }
+        input.seek(tiffStart + next);
+        long ifd1 = input.readUnsignedInt();
+        if (0 == ifd1 || ifd1 + 2 > size) {
+            return null;
+        }
+        input.seek(tiffStart + ifd1);
+        entries = input.readUnsignedShort();
+        if (ifd1 + 2 + entries * 12L > size) {
+            return null;
+        }
+        int compression = COMPRESSION_JPEG;
+        long offset = 0;
+        long length = 0;
+        for (int ndx = 0; ndx < entries; ndx++) {
+            int tag = input.readUnsignedShort();
+            int type = input.readUnsignedShort();
+            input.readUnsignedInt(); //count
+            long value = TYPE_SHORT == type ? input.readUnsignedShort() : input.readUnsignedInt();
+            if (TYPE_SHORT == type) {
+                input.skipBytes(2);
+            }
+            if (TAG_COMPRESSION == tag) {
+                compression = (int) value;
+            } else if (TAG_JPEG_OFFSET == tag) {
+                offset = value;
+            } else if (TAG_JPEG_LENGTH == tag) {
+                length = value;
+            }
+        }
+        if (COMPRESSION_JPEG != compression || 0 == offset || 0 == length || offset + length > size) {
+            return null;
+        }
+        byte[] thumbnail = new byte[(int) length];
+        input.seek(tiffStart + offset);
+        input.readFully(thumbnail);
+        return thumbnail;
+    }
+}
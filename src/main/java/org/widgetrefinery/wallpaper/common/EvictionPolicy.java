@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+/**
+ * Decides which entries a {@link BasicCache} keeps once it is over budget.
+ * When the cache needs room it looks at a few of its least recently used
+ * entries and evicts the one with the lowest retention score. If a new entry
+ * is what pushed the cache over budget, the policy may also refuse to admit
+ * it in favour of the entry that would otherwise be evicted.
+ * <p/>
+ * {@link #recordAccess(Object)} is called from every thread that reads the
+ * cache, without any lock held, so implementations must be thread-safe. The
+ * other methods are called while the cache holds its eviction lock.
+ *
+ * @see BasicCache
+ * @since 10/18/26 3:05 PM
+ */
+public interface EvictionPolicy<K> {
+    /**
+     * Records a lookup of the given key, whether or not it was found.
+     *
+     * @param key key that was looked up
+     */
+    void recordAccess(K key);
+
+    /**
+     * Computes how much an entry is worth keeping. Entries with lower scores
+     * are evicted first; entries with equal scores are evicted oldest first.
+     *
+     * @param key    key of the entry
+     * @param weight weight of the entry's value, in bytes
+     * @param cost   cost of recreating the entry's value, in nanoseconds
+     * @return retention score
+     */
+    double getRetentionScore(K key, long weight, long cost);
+
+    /**
+     * Decides whether a new entry should replace the entry chosen for
+     * eviction.
+     *
+     * @param candidateScore retention score of the new entry
+     * @param victimScore    retention score of the entry chosen for eviction
+     * @return true to admit the new entry, false to evict it instead
+     */
+    boolean isAdmitted(double candidateScore, double victimScore);
+}
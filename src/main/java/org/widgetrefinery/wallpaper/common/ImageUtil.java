@@ -19,16 +19,25 @@ package org.widgetrefinery.wallpaper.common;
 
 import org.widgetrefinery.util.BadUserInputException;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,15 +46,25 @@ import java.util.logging.Logger;
  * Utility class for reading and writing images. It uses
  * {@link org.widgetrefinery.wallpaper.common.DesktopInfo} to format images
  * suitable for use as a multi-head wallpaper.
+ * <p/>
+ * Once configured, an instance may be shared between threads; the setters
+ * are not synchronized, so call them before handing the instance out.
  *
  * @see javax.imageio.ImageIO
  * @since 2/20/12 5:24 PM
  */
 public class ImageUtil {
-    private static final Logger logger = Logger.getLogger(ImageUtil.class.getName());
+    private static final Logger logger                    = Logger.getLogger(ImageUtil.class.getName());
+    private static final int    REGION_MARGIN             = 2; //source pixels needed around a region by the bicubic filter
+    private static final int    REGION_DECODING_THRESHOLD = 75; //decode visible regions when less than 75% of the bounds is on screen
+    private static final long   TILING_THRESHOLD          = 8L * 1024 * 1024; //render into tiles when the bounds exceed 8M pixels
+    private static final long   DEFAULT_BAND_BUDGET       = 64L * 1024 * 1024;
+    private static final int    COARSE_SCALE              = 8; //coarse JPEG previews decode only the DC coefficient of each block
 
-    private final DesktopInfo   info;
-    private       BufferedImage mask;
+    private final DesktopInfo    info;
+    private       BufferedImage  mask;
+    private       ResampleFilter resampleFilter;
+    private       long           bandBudget;
 
     /**
      * Creates a new instance that targets the current monitor configuration.
@@ -72,6 +91,50 @@ public class ImageUtil {
         return this.info.getBounds();
     }
 
+    /**
+     * Returns the filter used to resize full quality images, or null if
+     * Java2D bicubic interpolation is used.
+     *
+     * @return resample filter or null
+     */
+    public ResampleFilter getResampleFilter() {
+        return this.resampleFilter;
+    }
+
+    /**
+     * Sets the filter used to resize full quality images. When set, images
+     * are resized by {@link org.widgetrefinery.wallpaper.common.Resampler}
+     * using all available processors. When null, Java2D bicubic interpolation
+     * is used. Previews are not affected.
+     *
+     * @param resampleFilter resample filter or null
+     */
+    public void setResampleFilter(final ResampleFilter resampleFilter) {
+        this.resampleFilter = resampleFilter;
+    }
+
+    /**
+     * Returns the number of bytes {@link #streamImage(java.io.File, java.io.File)}
+     * may use for each band of the source image.
+     *
+     * @return band budget in bytes
+     */
+    public long getBandBudget() {
+        return 0 < this.bandBudget ? this.bandBudget : DEFAULT_BAND_BUDGET;
+    }
+
+    /**
+     * Sets the number of bytes {@link #streamImage(java.io.File, java.io.File)}
+     * may use for each band of the source image. Larger budgets mean fewer,
+     * taller bands and therefore less time spent decoding. A value of 0
+     * restores the default of 64MB.
+     *
+     * @param bandBudget band budget in bytes
+     */
+    public void setBandBudget(final long bandBudget) {
+        this.bandBudget = bandBudget;
+    }
+
     /**
      * Returns the value from {@link org.widgetrefinery.wallpaper.common.DesktopInfo#getMonitors()}.
      *
@@ -87,7 +150,7 @@ public class ImageUtil {
      *
      * @return image masking off screen areas
      */
-    protected BufferedImage getMask() {
+    protected synchronized BufferedImage getMask() {
         if (null == this.mask) {
             Rectangle bounds = getBounds();
             BufferedImage mask = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_4BYTE_ABGR);
@@ -106,7 +169,9 @@ public class ImageUtil {
 
     /**
      * Reads an image into memory and formats it for use as a multi-head
-     * wallpaper. If the image type is not supported then null is returned.
+     * wallpaper. When the monitors cover only part of the screen bounds, only
+     * the visible regions of the image are decoded. If the image type is not
+     * supported then null is returned.
      *
      * @param file image file to load and format
      * @return formatted image or null
@@ -114,7 +179,14 @@ public class ImageUtil {
      */
     public BufferedImage formatImage(final File file) throws IOException {
         long start = System.currentTimeMillis();
-        BufferedImage img = ImageIO.read(file);
+        if (isRegionDecodingWorthwhile()) {
+            BufferedImage result = formatVisibleRegions(file);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(MessageFormat.format("load+render visible regions: {0} msec, file: {1}", System.currentTimeMillis() - start, file.getName()));
+            }
+            return result;
+        }
+        BufferedImage img = readImage(file, false);
         long mid = System.currentTimeMillis();
         BufferedImage result = null != img ? formatImage(img) : null;
         long end = System.currentTimeMillis();
@@ -125,30 +197,309 @@ public class ImageUtil {
     }
 
     /**
-     * Formats the given image for use as a multi-head wallpaper.
+     * Formats the given image for use as a multi-head wallpaper. The image is
+     * resized and translated in a single pass into one new image.
      *
      * @param img image to format
      * @return formatted image
      */
     public BufferedImage formatImage(final BufferedImage img) {
-        BufferedImage resized = resize(img, false);
-        return translate(resized);
+        Rectangle bounds = getBounds();
+        int offsetX = wrap(bounds.x, bounds.width);
+        int offsetY = wrap(bounds.y, bounds.height);
+        if (img.getWidth() == bounds.width && img.getHeight() == bounds.height && 0 == offsetX && 0 == offsetY) {
+            return img;
+        }
+        if (null != this.resampleFilter) {
+            return new Resampler(this.resampleFilter).resize(img, bounds.width, bounds.height, offsetX, offsetY);
+        }
+
+        BufferedImage result = createImage(bounds.width, bounds.height, img);
+        Graphics2D g2d = result.createGraphics();
+        drawWrapped(g2d, img, offsetX, offsetY, bounds.width, bounds.height);
+        g2d.dispose();
+        return result;
+    }
+
+    /**
+     * Reads an image into memory and formats it for use as a multi-head
+     * wallpaper, like {@link #formatImage(java.io.File)}. When the screen
+     * bounds are very large the result is a
+     * {@link org.widgetrefinery.wallpaper.common.TiledCanvas} which only
+     * stores the tiles that show up on a monitor, instead of one contiguous
+     * image. If the image type is not supported then null is returned.
+     *
+     * @param file image file to load and format
+     * @return formatted image or null
+     * @throws IOException if an error occurred loading the image
+     */
+    public RenderedImage renderImage(final File file) throws IOException {
+        if (!isTilingWorthwhile()) {
+            return formatImage(file);
+        }
+        long start = System.currentTimeMillis();
+        BufferedImage img = readImage(file, false);
+        long mid = System.currentTimeMillis();
+        RenderedImage result = null != img ? renderImage(img) : null;
+        long end = System.currentTimeMillis();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(MessageFormat.format("load: {0} msec, render tiles: {1} msec, file: {2}", mid - start, end - mid, file.getName()));
+        }
+        return result;
+    }
+
+    /**
+     * Formats an image that has already been decoded for use as a multi-head
+     * wallpaper. Like {@link #renderImage(java.io.File)}, the result is a
+     * {@link org.widgetrefinery.wallpaper.common.TiledCanvas} when the screen
+     * bounds are very large. The given image is only read, so several
+     * instances targeting different layouts may render the same image
+     * concurrently.
+     *
+     * @param img image to format
+     * @return formatted image
+     */
+    public RenderedImage renderImage(final BufferedImage img) {
+        return isTilingWorthwhile() ? formatTiledImage(img) : formatImage(img);
+    }
+
+    /**
+     * Reads an image into memory at full quality, without formatting it. The
+     * result does not depend on any monitor layout, so it can be passed to
+     * {@link #renderImage(java.awt.image.BufferedImage)} of several
+     * instances. If the image type is not supported then null is returned.
+     *
+     * @param file image file to load
+     * @return decoded image or null
+     * @throws IOException if an error occurred loading the image
+     */
+    public static BufferedImage loadImage(final File file) throws IOException {
+        return ImageIO.read(file);
+    }
+
+    /**
+     * Formats an image for use as a multi-head wallpaper and saves it without
+     * ever holding the whole decoded source in memory. The source is decoded
+     * in horizontal bands through
+     * {@link javax.imageio.ImageReadParam#setSourceRegion(java.awt.Rectangle)},
+     * each band being sized to fit within {@link #getBandBudget()}. Every band
+     * is resized and translated by
+     * {@link org.widgetrefinery.wallpaper.common.Resampler}, using bicubic
+     * interpolation when no resample filter is configured. BMP output rows are
+     * written to the file as soon as they are finished; other formats are
+     * collected into a {@link org.widgetrefinery.wallpaper.common.TiledCanvas}
+     * and saved at the end. If the image type is not supported then false is
+     * returned and nothing is written.
+     *
+     * @param input  image file to load and format
+     * @param output filename to save the image to
+     * @return false if the input image type is not supported
+     * @throws BadUserInputException if there is a problem with the output filename
+     * @throws IOException           if an error occurred reading or writing an image
+     */
+    public boolean streamImage(final File input, final File output) throws BadUserInputException, IOException {
+        long start = System.currentTimeMillis();
+        String ext = getExtension(output);
+        final boolean bmp = "bmp".equalsIgnoreCase(ext);
+        if (!bmp && !ImageIO.getImageWritersBySuffix(ext).hasNext()) {
+            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_OUTPUT_NAME, output.getName());
+        }
+        final Rectangle bounds = getBounds();
+        final TiledCanvas canvas;
+        if (bmp) {
+            canvas = null;
+        } else {
+            List<Rectangle> regions = new ArrayList<Rectangle>();
+            TiledCanvas.addVisibleRegions(bounds.width, bounds.height, getMonitors(), regions);
+            canvas = new TiledCanvas(bounds.width, bounds.height, regions);
+        }
+        Integer bands = read(input, new ReadOperation<Integer>() {
+            @Override
+            public Integer read(final ImageReader reader) throws IOException {
+                int srcWidth = reader.getWidth(0);
+                int srcHeight = reader.getHeight(0);
+                int offsetX = wrap(bounds.x, bounds.width);
+                int offsetY = wrap(bounds.y, bounds.height);
+                Resampler resampler = new Resampler(null != resampleFilter ? resampleFilter : ResampleFilter.BICUBIC);
+                Resampler.Plan plan = resampler.createPlan(srcWidth, srcHeight, bounds.width, bounds.height);
+                BmpWriter.RowWriter writer = bmp ? new BmpWriter.RowWriter(output, bounds.width, bounds.height) : null;
+                int bands = 0;
+                try {
+                    Resampler.RowSink sink = bmp ? writer : canvas;
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    for (int y1 = 0, y2; y1 < bounds.height; y1 = y2) {
+                        y2 = findBandEnd(plan, srcWidth, y1);
+                        int firstRow = plan.getFirstSourceRow(y1);
+                        param.setSourceRegion(new Rectangle(0, firstRow, srcWidth, plan.getLastSourceRow(y2 - 1) - firstRow));
+                        BufferedImage band = reader.read(0, param);
+                        resampler.resample(plan, new Resampler.ImageRowSource(band, firstRow), band.getColorModel().hasAlpha(), y1, y2, offsetX, offsetY, sink);
+                        bands++;
+                    }
+                } finally {
+                    if (null != writer) {
+                        writer.close();
+                    }
+                }
+                return bands;
+            }
+        });
+        if (null == bands) {
+            return false;
+        }
+        long mid = System.currentTimeMillis();
+        if (!bmp) {
+            saveImage(canvas, output);
+        }
+        long end = System.currentTimeMillis();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(MessageFormat.format("load+render: {0} msec in {1} bands, save: {2} msec, file: {3}", mid - start, bands, end - mid, input.getName()));
+        }
+        return true;
+    }
+
+    /**
+     * Finds how many output rows, starting at y1, can be computed from one
+     * band of source rows that fits within the band budget. The budget covers
+     * the decoded band plus the working copies made by
+     * {@link org.widgetrefinery.wallpaper.common.Resampler}. At least one row
+     * is always returned so that progress is made.
+     *
+     * @param plan     resampling plan
+     * @param srcWidth source image width
+     * @param y1       first output row of the band
+     * @return last output row of the band, exclusive
+     */
+    protected int findBandEnd(final Resampler.Plan plan, final int srcWidth, final int y1) {
+        Rectangle bounds = getBounds();
+        long rowBytes = 4L * (2L * srcWidth + bounds.width);
+        long budget = getBandBudget();
+        int firstRow = plan.getFirstSourceRow(y1);
+        int y2 = y1 + 1;
+        while (y2 < bounds.height && (plan.getLastSourceRow(y2) - firstRow) * rowBytes <= budget) {
+            y2++;
+        }
+        return y2;
+    }
+
+    /**
+     * Formats the given image for use as a multi-head wallpaper into a
+     * {@link org.widgetrefinery.wallpaper.common.TiledCanvas}. The image is
+     * resized and translated in a single pass, and only the tiles that show
+     * up on a monitor are rendered.
+     *
+     * @param img image to format
+     * @return formatted image
+     */
+    public TiledCanvas formatTiledImage(final BufferedImage img) {
+        Rectangle bounds = getBounds();
+        int offsetX = wrap(bounds.x, bounds.width);
+        int offsetY = wrap(bounds.y, bounds.height);
+        List<Rectangle> regions = new ArrayList<Rectangle>();
+        TiledCanvas.addVisibleRegions(bounds.width, bounds.height, getMonitors(), regions);
+        TiledCanvas result = new TiledCanvas(bounds.width, bounds.height, regions);
+        if (null != this.resampleFilter) {
+            new Resampler(this.resampleFilter).resize(img, bounds.width, bounds.height, offsetX, offsetY, result);
+            return result;
+        }
+        int tileSize = result.getTileWidth();
+        for (int tileY = 0; tileY < result.getNumYTiles(); tileY++) {
+            for (int tileX = 0; tileX < result.getNumXTiles(); tileX++) {
+                BufferedImage tile = result.getTileImage(tileX, tileY);
+                if (null != tile) {
+                    Graphics2D g2d = tile.createGraphics();
+                    g2d.translate(-tileX * tileSize, -tileY * tileSize);
+                    drawWrapped(g2d, img, offsetX, offsetY, bounds.width, bounds.height);
+                    g2d.dispose();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines if the screen bounds are large enough that the wallpaper
+     * should be rendered into a
+     * {@link org.widgetrefinery.wallpaper.common.TiledCanvas}.
+     *
+     * @return true if {@link #formatTiledImage(java.awt.image.BufferedImage)} should be used
+     */
+    protected boolean isTilingWorthwhile() {
+        Rectangle bounds = getBounds();
+        return ((long) bounds.width) * bounds.height > TILING_THRESHOLD;
+    }
+
+    /**
+     * Draws the given image resized to the given dimensions and shifted with
+     * wrap around by the given offsets. The image is drawn once per wrapped
+     * position; Java2D clips each draw so every pixel is only rendered once.
+     *
+     * @param g2d     destination
+     * @param img     image to draw
+     * @param offsetX horizontal shift, between 0 and width - 1
+     * @param offsetY vertical shift, between 0 and height - 1
+     * @param width   resized width
+     * @param height  resized height
+     */
+    protected static void drawWrapped(final Graphics2D g2d, final BufferedImage img, final int offsetX, final int offsetY, final int width, final int height) {
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.drawImage(img, offsetX, offsetY, width, height, null);
+        if (0 != offsetX) {
+            g2d.drawImage(img, offsetX - width, offsetY, width, height, null);
+        }
+        if (0 != offsetY) {
+            g2d.drawImage(img, offsetX, offsetY - height, width, height, null);
+        }
+        if (0 != offsetX && 0 != offsetY) {
+            g2d.drawImage(img, offsetX - width, offsetY - height, width, height, null);
+        }
+    }
+
+    /**
+     * Converts a screen bounds offset into the equivalent wrap around shift,
+     * between 0 and size - 1.
+     *
+     * @param offset screen bounds offset, such as bounds.x
+     * @param size   screen bounds size, such as bounds.width
+     * @return wrap around shift
+     */
+    protected static int wrap(final int offset, final int size) {
+        return 0 < size ? ((offset % size) + size) % size : 0;
     }
 
     /**
      * Reads an image into memory and formats it for use as a multi-head
      * wallpaper. The translation step is skipped and a mask is added to
-     * highlight which portions are visible. If the image type is not supported
-     * then null is returned.
+     * highlight which portions are visible. The image is decoded with source
+     * subsampling so that only roughly as many pixels as the screen bounds
+     * need are loaded. If the image type is not supported then null is
+     * returned.
      *
      * @param file image file to load and format
      * @return formatted preview image or null
      * @throws IOException if an error occurred loading the image
      */
     public BufferedImage previewImage(final File file) throws IOException {
+        return previewImage(file, null);
+    }
+
+    /**
+     * Loads an image file and formats it as a preview, like
+     * {@link #previewImage(java.io.File)}, but stops early if the given
+     * cancellation is triggered.
+     *
+     * @param file         image file to load and format
+     * @param cancellation cancellation to honour, or null
+     * @return formatted preview image or null
+     * @throws IOException                                 if an error occurred loading the image
+     * @throws java.util.concurrent.CancellationException if the preview was cancelled
+     */
+    public BufferedImage previewImage(final File file, final Cancellation cancellation) throws IOException {
         long start = System.currentTimeMillis();
-        BufferedImage img = ImageIO.read(file);
+        BufferedImage img = readImage(file, true, cancellation);
         long mid = System.currentTimeMillis();
+        if (null != cancellation) {
+            cancellation.check();
+        }
         BufferedImage result = null != img ? previewImage(img) : null;
         long end = System.currentTimeMillis();
         if (logger.isLoggable(Level.FINE)) {
@@ -157,6 +508,52 @@ public class ImageUtil {
         return result;
     }
 
+    /**
+     * Loads a rough preview of an image file, meant to be shown while the
+     * regular preview is rendered. An embedded thumbnail is used if the file
+     * has one. Otherwise a baseline JPEG is decoded by {@link JpegDecoder} at
+     * 1/8 scale, as long as {@link #previewImage(java.io.File)} would decode
+     * it at a larger scale. Null is returned in every other case, since a
+     * rough preview would then cost about as much as the regular one and
+     * only delay it.
+     *
+     * @param file         image file to load and format
+     * @param cancellation cancellation to honour, or null
+     * @return rough preview image or null
+     * @throws IOException                                 if an error occurred loading the image
+     * @throws java.util.concurrent.CancellationException if the preview was cancelled
+     */
+    public BufferedImage coarsePreviewImage(final File file, final Cancellation cancellation) throws IOException {
+        long start = System.currentTimeMillis();
+        BufferedImage img = read(file, cancellation, new ReadOperation<BufferedImage>() {
+            @Override
+            public BufferedImage read(final ImageReader reader) throws IOException {
+                BufferedImage thumbnail = EmbeddedThumbnail.read(reader);
+                if (null != thumbnail) {
+                    return thumbnail;
+                }
+                int subsampling = computeSubsampling(reader.getWidth(0), reader.getHeight(0));
+                if (2 > subsampling || COARSE_SCALE <= JpegDecoder.getScale(subsampling) || !"jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                    return null;
+                }
+                return readScaledJpeg(file, COARSE_SCALE, cancellation);
+            }
+        });
+        if (null == img) {
+            return null;
+        }
+        Rectangle bounds = getBounds();
+        BufferedImage result = createImage(bounds.width, bounds.height, img);
+        Graphics2D g2d = result.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(img, 0, 0, bounds.width, bounds.height, null);
+        g2d.dispose();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(MessageFormat.format("coarse: {0} msec, file: {1}", System.currentTimeMillis() - start, file.getName()));
+        }
+        return mask(result);
+    }
+
     /**
      * Formats the given image for use as a multi-head wallpaper. The
      * translation step is skipped and a mask is added to highlight which
@@ -171,7 +568,289 @@ public class ImageUtil {
     }
 
     /**
-     * Resize the given image so that it fits within the screen bounds.
+     * Reads an image into memory. When reading a preview, a thumbnail
+     * embedded in the file is used instead of the image if it covers the
+     * screen bounds, see {@link #isThumbnailUsable(java.awt.image.BufferedImage, int, int)}.
+     * Otherwise the image is subsampled while it is being decoded so that the
+     * result is no smaller than the screen bounds but otherwise as small as
+     * possible. Baseline JPEG previews are decoded at a reduced scale by
+     * {@link JpegDecoder} instead. If the image type is not supported then
+     * null is returned.
+     *
+     * @param file    image file to load
+     * @param preview set to true to decode a subsampled image
+     * @return decoded image or null
+     * @throws IOException if an error occurred loading the image
+     */
+    protected BufferedImage readImage(final File file, final boolean preview) throws IOException {
+        return readImage(file, preview, null);
+    }
+
+    /**
+     * Reads an image into memory, like {@link #readImage(java.io.File, boolean)},
+     * but aborts the decode if the given cancellation is triggered.
+     *
+     * @param file         image file to load
+     * @param preview      set to true to decode a subsampled image
+     * @param cancellation cancellation to honour, or null
+     * @return decoded image or null
+     * @throws IOException                                 if an error occurred loading the image
+     * @throws java.util.concurrent.CancellationException if the decode was cancelled
+     */
+    protected BufferedImage readImage(final File file, final boolean preview, final Cancellation cancellation) throws IOException {
+        if (!preview && null == cancellation) {
+            return loadImage(file);
+        }
+        return read(file, cancellation, new ReadOperation<BufferedImage>() {
+            @Override
+            public BufferedImage read(final ImageReader reader) throws IOException {
+                if (preview) {
+                    BufferedImage thumbnail = EmbeddedThumbnail.read(reader);
+                    if (isThumbnailUsable(thumbnail, reader.getWidth(0), reader.getHeight(0))) {
+                        return thumbnail;
+                    }
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = computeSubsampling(reader.getWidth(0), reader.getHeight(0));
+                if (preview && 1 < subsampling && "jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                    BufferedImage scaled = readScaledJpeg(file, subsampling, cancellation);
+                    if (null != scaled) {
+                        return scaled;
+                    }
+                }
+                if (preview && 1 < subsampling) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                if (null != cancellation) {
+                    //skip the decode if the request was cancelled while the header was read
+                    cancellation.check();
+                }
+                return reader.read(0, param);
+            }
+        });
+    }
+
+    /**
+     * Decodes a JPEG file with {@link JpegDecoder} at the largest scale that
+     * still covers the screen bounds. Null is returned if the file uses a
+     * JPEG feature the decoder lacks, or if the decoder rejects the data, so
+     * that the caller can fall back to ImageIO.
+     *
+     * @param file         JPEG file to decode
+     * @param subsampling  subsampling factor the preview allows
+     * @param cancellation cancellation to honour, or null
+     * @return scaled image or null
+     * @throws IOException                                 if an error occurred reading the file
+     * @throws java.util.concurrent.CancellationException if the decode was cancelled
+     */
+    protected BufferedImage readScaledJpeg(final File file, final int subsampling, final Cancellation cancellation) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            return JpegDecoder.decode(input, JpegDecoder.getScale(subsampling), cancellation);
+        } catch (IIOException e) {
+            logger.log(Level.FINE, "falling back to ImageIO for " + file.getName(), e);
+            return null;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Opens an {@link javax.imageio.ImageReader} on the given file and hands
+     * it to the given operation. The reader and its input stream are released
+     * once the operation completes. If the image type is not supported then
+     * null is returned without running the operation.
+     *
+     * @param file      image file to open
+     * @param operation what to do with the reader
+     * @return result of the operation or null
+     * @throws IOException if an error occurred loading the image
+     */
+    protected <T> T read(final File file, final ReadOperation<T> operation) throws IOException {
+        return read(file, null, operation);
+    }
+
+    /**
+     * Opens an {@link javax.imageio.ImageReader} on the given file and hands
+     * it to the given operation, like
+     * {@link #read(java.io.File, ReadOperation)}. The reader is registered
+     * with the given cancellation while the operation runs so that it can be
+     * aborted, in which case the result is discarded.
+     *
+     * @param file         image file to open
+     * @param cancellation cancellation to honour, or null
+     * @param operation    what to do with the reader
+     * @return result of the operation or null
+     * @throws IOException                                 if an error occurred loading the image
+     * @throws java.util.concurrent.CancellationException if the operation was cancelled
+     */
+    protected <T> T read(final File file, final Cancellation cancellation, final ReadOperation<T> operation) throws IOException {
+        if (null != cancellation) {
+            cancellation.check();
+        }
+        if (!file.canRead()) {
+            throw new IIOException("Can't read input file!");
+        }
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (null == input) {
+            throw new IIOException("Can't create an ImageInputStream!");
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if (null == cancellation) {
+                    return operation.read(reader);
+                }
+                cancellation.register(reader);
+                try {
+                    T result = operation.read(reader);
+                    cancellation.check();
+                    return result;
+                } finally {
+                    cancellation.unregister(reader);
+                }
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads only the portions of an image that end up on a monitor and
+     * formats them for use as a multi-head wallpaper. Each monitor rectangle
+     * is mapped back to a region of the source image, plus a small margin for
+     * the interpolation filter, and only that region is decoded. Off screen
+     * areas are left black. If the image type is not supported then null is
+     * returned.
+     *
+     * @param file image file to load and format
+     * @return formatted image or null
+     * @throws IOException if an error occurred loading the image
+     */
+    protected BufferedImage formatVisibleRegions(final File file) throws IOException {
+        return read(file, new ReadOperation<BufferedImage>() {
+            @Override
+            public BufferedImage read(final ImageReader reader) throws IOException {
+                Rectangle bounds = getBounds();
+                Rectangle canvas = new Rectangle(0, 0, bounds.width, bounds.height);
+                int srcWidth = reader.getWidth(0);
+                int srcHeight = reader.getHeight(0);
+                double scaleX = ((double) bounds.width) / srcWidth;
+                double scaleY = ((double) bounds.height) / srcHeight;
+                ImageReadParam param = reader.getDefaultReadParam();
+
+                BufferedImage result = null;
+                List<Rectangle> decoded = new ArrayList<Rectangle>();
+                for (Rectangle monitor : getMonitors()) {
+                    Rectangle target = canvas.intersection(new Rectangle(monitor.x - bounds.x, monitor.y - bounds.y, monitor.width, monitor.height));
+                    if (target.isEmpty() || isContained(target, decoded)) {
+                        continue;
+                    }
+                    decoded.add(target);
+
+                    int x1 = Math.max(0, (int) Math.floor(target.x / scaleX) - REGION_MARGIN);
+                    int y1 = Math.max(0, (int) Math.floor(target.y / scaleY) - REGION_MARGIN);
+                    int x2 = Math.min(srcWidth, (int) Math.ceil((target.x + target.width) / scaleX) + REGION_MARGIN);
+                    int y2 = Math.min(srcHeight, (int) Math.ceil((target.y + target.height) / scaleY) + REGION_MARGIN);
+                    Rectangle source = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+                    param.setSourceRegion(source);
+                    BufferedImage region = reader.read(0, param);
+
+                    if (null == result) {
+                        result = createImage(bounds.width, bounds.height, region);
+                    }
+                    Graphics2D g2d = result.createGraphics();
+                    g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                    g2d.clip(target);
+                    AffineTransform transform = AffineTransform.getScaleInstance(scaleX, scaleY);
+                    transform.translate(source.x, source.y);
+                    g2d.drawImage(region, transform, null);
+                    g2d.dispose();
+                }
+                return null != result ? translate(result) : null;
+            }
+        });
+    }
+
+    /**
+     * Determines if decoding only the visible regions is worthwhile. This is
+     * the case when the monitors leave a significant portion of the screen
+     * bounds uncovered, such as monitors of different heights. Regions are
+     * scaled with Java2D, so region decoding is skipped when a resample
+     * filter has been configured.
+     *
+     * @return true if {@link #formatVisibleRegions(java.io.File)} should be used
+     */
+    protected boolean isRegionDecodingWorthwhile() {
+        if (null != this.resampleFilter) {
+            return false;
+        }
+        Rectangle bounds = getBounds();
+        long visible = 0;
+        for (Rectangle monitor : getMonitors()) {
+            visible += ((long) monitor.width) * monitor.height;
+        }
+        return visible * 100 < ((long) bounds.width) * bounds.height * REGION_DECODING_THRESHOLD;
+    }
+
+    private static boolean isContained(final Rectangle rect, final List<Rectangle> others) {
+        for (Rectangle other : others) {
+            if (other.contains(rect)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the largest subsampling factor that still leaves an image of
+     * the given size at least as large as the screen bounds in both
+     * directions.
+     *
+     * @param width  source image width
+     * @param height source image height
+     * @return subsampling factor, 1 meaning every pixel is read
+     */
+    protected int computeSubsampling(final int width, final int height) {
+        Rectangle bounds = getBounds();
+        int factor = Math.min(width / Math.max(1, bounds.width), height / Math.max(1, bounds.height));
+        return Math.max(1, factor);
+    }
+
+    /**
+     * Checks if an embedded thumbnail can stand in for the image it was taken
+     * from when making a preview. It has to be at least as large as the
+     * screen bounds, and its aspect ratio has to be within 2% of the image's
+     * so that letterboxed or cropped thumbnails are not used.
+     *
+     * @param thumbnail thumbnail to check, or null
+     * @param width     source image width
+     * @param height    source image height
+     * @return true if the thumbnail is good enough for a preview
+     */
+    protected boolean isThumbnailUsable(final BufferedImage thumbnail, final int width, final int height) {
+        if (null == thumbnail) {
+            return false;
+        }
+        Rectangle bounds = getBounds();
+        if (thumbnail.getWidth() < bounds.width || thumbnail.getHeight() < bounds.height) {
+            return false;
+        }
+        long thumbnailRatio = (long) thumbnail.getWidth() * height;
+        long imageRatio = (long) thumbnail.getHeight() * width;
+        return Math.abs(thumbnailRatio - imageRatio) * 50 <= imageRatio;
+    }
+
+    /**
+     * Resize the given image so that it fits within the screen bounds. Full
+     * quality images use the configured resample filter if there is one.
      *
      * @param img     image to resize
      * @param preview set to true for a lower-quality result
@@ -181,7 +860,10 @@ public class ImageUtil {
         BufferedImage result = img;
         Rectangle bounds = getBounds();
         if (img.getWidth() != bounds.width || img.getHeight() != bounds.height) {
-            result = new BufferedImage(bounds.width, bounds.height, img.getType());
+            if (!preview && null != this.resampleFilter) {
+                return new Resampler(this.resampleFilter).resize(img, bounds.width, bounds.height);
+            }
+            result = createImage(bounds.width, bounds.height, img);
             Graphics2D g2d = result.createGraphics();
             if (preview) {
                 g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
@@ -196,30 +878,18 @@ public class ImageUtil {
 
     /**
      * Translates the given image so that the upper-left corner of the image
-     * aligns with the upper-left corner of the screen bounds.
+     * aligns with the upper-left corner of the screen bounds. The image is
+     * shifted in place with wrap around by
+     * {@link org.widgetrefinery.wallpaper.common.RasterUtil#wrapShift(java.awt.image.WritableRaster, int, int)},
+     * so no new image is allocated.
      *
      * @param img image to translate
-     * @return translated image
+     * @return the same image, translated
      */
     protected BufferedImage translate(final BufferedImage img) {
-        BufferedImage result = img;
         Rectangle bounds = getBounds();
-        if (0 != bounds.x || 0 != bounds.y) {
-            result = new BufferedImage(bounds.width, bounds.height, img.getType());
-            Graphics2D g2d = result.createGraphics();
-            g2d.drawImage(img, bounds.x, bounds.y, null);
-            if (0 != bounds.x) {
-                g2d.drawImage(img, bounds.x + bounds.width, bounds.y, null);
-            }
-            if (0 != bounds.y) {
-                g2d.drawImage(img, bounds.x, bounds.y + bounds.height, null);
-            }
-            if (0 != bounds.x && 0 != bounds.y) {
-                g2d.drawImage(img, bounds.x + bounds.width, bounds.y + bounds.height, null);
-            }
-            g2d.dispose();
-        }
-        return result;
+        RasterUtil.wrapShift(img.getRaster(), wrap(bounds.x, img.getWidth()), wrap(bounds.y, img.getHeight()));
+        return img;
     }
 
     /**
@@ -236,7 +906,28 @@ public class ImageUtil {
     }
 
     /**
-     * Saves the given image to the given file.
+     * Creates a blank image of the given size using the same image type as
+     * the given template. Images decoded by {@link javax.imageio.ImageIO}
+     * sometimes have a custom type which cannot be instantiated directly; in
+     * that case a standard RGB or ARGB type is chosen instead.
+     *
+     * @param width    image width
+     * @param height   image height
+     * @param template image whose type should be matched
+     * @return new blank image
+     */
+    protected static BufferedImage createImage(final int width, final int height, final BufferedImage template) {
+        int type = template.getType();
+        if (BufferedImage.TYPE_CUSTOM == type) {
+            type = template.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Saves the given image to the given file. BMP files are written by
+     * {@link org.widgetrefinery.wallpaper.common.BmpWriter}; all other formats
+     * go through {@link javax.imageio.ImageIO}.
      *
      * @param img  image to save
      * @param file filename to save the image to
@@ -244,16 +935,41 @@ public class ImageUtil {
      * @throws IOException           if an error occurred writing the image
      */
     public void saveImage(final RenderedImage img, final File file) throws BadUserInputException, IOException {
-        String filename = file.getName();
-        int ndx = filename.lastIndexOf('.');
-        if (-1 == ndx) {
-            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_OUTPUT_NAME, filename);
+        String ext = getExtension(file);
+        if ("bmp".equalsIgnoreCase(ext)) {
+            new BmpWriter().write(img, file);
+            return;
         }
-        String ext = filename.substring(ndx + 1);
 
         boolean result = ImageIO.write(img, ext, file);
         if (!result) {
+            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_OUTPUT_NAME, file.getName());
+        }
+    }
+
+    /**
+     * Returns the extension of the given output file, which determines the
+     * image format it is saved as.
+     *
+     * @param file output file
+     * @return file extension, without the dot
+     * @throws BadUserInputException if the filename has no extension
+     */
+    protected static String getExtension(final File file) throws BadUserInputException {
+        String filename = file.getName();
+        int ndx = filename.lastIndexOf('.');
+        if (-1 == ndx) {
             throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_OUTPUT_NAME, filename);
         }
+        return filename.substring(ndx + 1);
+    }
+
+    /**
+     * Something to do with an open {@link javax.imageio.ImageReader}.
+     *
+     * @see #read(java.io.File, org.widgetrefinery.wallpaper.common.ImageUtil.ReadOperation)
+     */
+    protected static abstract class ReadOperation<T> {
+        public abstract T read(ImageReader reader) throws IOException;
     }
 }
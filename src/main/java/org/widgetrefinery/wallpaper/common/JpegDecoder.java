@@ -0,0 +1,781 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.common;
+
+import javax.imageio.IIOException;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decodes baseline JPEG images directly at 1/1, 1/2, 1/4 or 1/8 scale. The
+ * entropy coded data still has to be read in full, but each 8x8 block only
+ * goes through an inverse DCT of its low frequency coefficients, sized to
+ * the block it produces: 4x4 at 1/2, 2x2 at 1/4, and just the DC
+ * coefficient at 1/8. {@link javax.imageio.ImageReader} runs the full IDCT
+ * even when subsampling, so for previews of large photos this does a
+ * fraction of the work.
+ * <p/>
+ * Only 8 bit sequential Huffman images with one or three components are
+ * supported. For anything else, such as progressive or CMYK images,
+ * {@link #decode(java.io.InputStream, int, Cancellation)} returns null so
+ * the caller can fall back to ImageIO. Chroma is upsampled by pixel
+ * replication, which is good enough for a preview.
+ *
+ * @since 10/18/26 9:15 PM
+ */
+public class JpegDecoder {
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+    private static final int   MARKER_SOF0  = 0xC0;
+    private static final int   MARKER_SOF1  = 0xC1;
+    private static final int   MARKER_DHT   = 0xC4;
+    private static final int   MARKER_RST0  = 0xD0;
+    private static final int   MARKER_RST7  = 0xD7;
+    private static final int   MARKER_SOI   = 0xD8;
+    private static final int   MARKER_EOI   = 0xD9;
+    private static final int   MARKER_SOS   = 0xDA;
+    private static final int   MARKER_DQT   = 0xDB;
+    private static final int   MARKER_DRI   = 0xDD;
+    private static final int   MARKER_APP14 = 0xEE;
+    private static final int   BUFFER_SIZE  = 64 * 1024;
+    private static final int[] CR_TO_R      = new int[256];
+    private static final int[] CB_TO_B      = new int[256];
+    private static final int[] CR_TO_G      = new int[256];
+    private static final int[] CB_TO_G      = new int[256];
+
+    static {
+        //JFIF YCbCr to RGB in 16 bit fixed point
+        for (int ndx = 0; ndx < 256; ndx++) {
+            int c = ndx - 128;
+            CR_TO_R[ndx] = (int) Math.round(1.402 * c);
+            CB_TO_B[ndx] = (int) Math.round(1.772 * c);
+            CR_TO_G[ndx] = (int) Math.round(-0.714136 * 65536 * c);
+            CB_TO_G[ndx] = (int) Math.round(-0.344136 * 65536 * c) + 32768;
+        }
+    }
+
+    private final InputStream    input;
+    private final byte[]         buffer;
+    private final int            scale;
+    private final int            blockSize;
+    private final float[]        idct;
+    private final float[]        idctRows;
+    private final Cancellation   cancellation;
+    private final int[][]        quantTables;
+    private final HuffmanTable[] dcTables;
+    private final HuffmanTable[] acTables;
+    private       int            bufferPos;
+    private       int            bufferLength;
+    private       Component[]    components;
+    private       int            width;
+    private       int            height;
+    private       int            maxH;
+    private       int            maxV;
+    private       int            mcusPerLine;
+    private       int            mcusPerColumn;
+    private       int            restartInterval;
+    private       int            adobeTransform;
+    private       int            bitBuffer;
+    private       int            bitCount;
+    private       int            pendingMarker;
+
+    protected JpegDecoder(final InputStream input, final int scale, final Cancellation cancellation) {
+        this.input = input;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.scale = scale;
+        this.blockSize = 8 / scale;
+        this.idct = createIdctTable(this.blockSize);
+        this.idctRows = new float[this.blockSize * this.blockSize];
+        this.cancellation = cancellation;
+        this.quantTables = new int[4][];
+        this.dcTables = new HuffmanTable[4];
+        this.acTables = new HuffmanTable[4];
+        this.adobeTransform = -1;
+        this.pendingMarker = -1;
+    }
+
+    /**
+     * Picks the largest scale this decoder supports that does not exceed the
+     * given subsampling factor.
+     *
+     * @param subsampling wanted subsampling factor
+     * @return 1, 2, 4 or 8
+     */
+    public static int getScale(final int subsampling) {
+        int scale = 8;
+        while (scale > subsampling && 1 < scale) {
+            scale /= 2;
+        }
+        return scale;
+    }
+
+    /**
+     * Decodes a JPEG stream at the given scale. The result is
+     * ceil(width / scale) by ceil(height / scale) pixels.
+     *
+     * @param input        JPEG stream, read up to the end of the image
+     * @param scale        1, 2, 4 or 8
+     * @param cancellation cancellation to honour, or null
+     * @return decoded image, or null if the image uses a JPEG feature this
+     *         decoder does not support
+     * @throws IIOException                               if the stream is not a valid JPEG image
+     * @throws IOException                                if an error occurred reading the stream
+     * @throws java.util.concurrent.CancellationException if the decode was cancelled
+     */
+    public static BufferedImage decode(final InputStream input, final int scale, final Cancellation cancellation) throws IOException {
+        if (1 != scale && 2 != scale && 4 != scale && 8 != scale) {
+            throw new IllegalArgumentException("unsupported scale " + scale);
+        }
+        return new JpegDecoder(input, scale, cancellation).decode();
+    }
+
+    /**
+     * Builds the 1D inverse DCT for blocks of the given size. Entry
+     * [x * size + u] is the weight of coefficient u at output sample x. Each
+     * weight is the 8 point IDCT basis averaged over the group of 8 / size
+     * pixels that sample x stands for, so a scaled block is exactly the box
+     * filtered full size block, minus the high frequencies that do not
+     * survive the averaging.
+     *
+     * @param size output samples per block side
+     * @return IDCT weights
+     */
+    protected static float[] createIdctTable(final int size) {
+        float[] table = new float[size * size];
+        int group = 8 / size;
+        for (int x = 0; x < size; x++) {
+            for (int u = 0; u < size; u++) {
+                double c = 0 == u ? Math.sqrt(0.5) : 1;
+                double sum = 0;
+                for (int pixel = x * group; pixel < (x + 1) * group; pixel++) {
+                    sum += Math.cos((2 * pixel + 1) * u * Math.PI / 16);
+                }
+                table[x * size + u] = (float) (c / 2 * sum / group);
+            }
+        }
+        return table;
+    }
+
+    protected BufferedImage decode() throws IOException {
+        if (0xFF != readByte() || MARKER_SOI != readByte()) {
+            throw new IIOException("Not a JPEG stream");
+        }
+        while (true) {
+            int marker = readMarker();
+            if (MARKER_EOI == marker) {
+                break;
+            } else if (MARKER_SOF0 == marker || MARKER_SOF1 == marker) {
+                if (null != this.components || !readFrame()) {
+                    return null;
+                }
+            } else if (0xC0 <= marker && 0xCF >= marker && MARKER_DHT != marker && 0xC8 != marker) {
+                return null; //progressive, lossless, hierarchical or arithmetic coded
+            } else if (MARKER_DHT == marker) {
+                readHuffmanTables();
+            } else if (MARKER_DQT == marker) {
+                readQuantTables();
+            } else if (MARKER_DRI == marker) {
+                readUnsignedShort();
+                this.restartInterval = readUnsignedShort();
+            } else if (MARKER_APP14 == marker) {
+                readAdobeSegment();
+            } else if (MARKER_SOS == marker) {
+                if (null == this.components) {
+                    throw new IIOException("Scan before frame header");
+                }
+                readScan();
+            } else if ((MARKER_RST0 > marker || MARKER_RST7 < marker) && 0x01 != marker) {
+                skipSegment();
+            }
+        }
+        if (null == this.components) {
+            throw new IIOException("No image in JPEG stream");
+        }
+        return createImage();
+    }
+
+    protected boolean readFrame() throws IOException {
+        readUnsignedShort();
+        int precision = readByte();
+        this.height = readUnsignedShort();
+        this.width = readUnsignedShort();
+        int count = readByte();
+        if (8 != precision || 0 == this.height || (1 != count && 3 != count)) {
+            return false;
+        }
+        if (0 == this.width) {
+            throw new IIOException("Invalid JPEG image width");
+        }
+        Component[] frame = new Component[count];
+        for (int ndx = 0; ndx < count; ndx++) {
+            int id = readByte();
+            int sampling = readByte();
+            int h = sampling >> 4;
+            int v = sampling & 0x0F;
+            if (1 > h || 4 < h || 1 > v || 4 < v) {
+                throw new IIOException("Invalid JPEG sampling factors");
+            }
+            frame[ndx] = new Component(id, h, v, readByte() & 0x03);
+            this.maxH = Math.max(this.maxH, h);
+            this.maxV = Math.max(this.maxV, v);
+        }
+        this.mcusPerLine = (this.width + 8 * this.maxH - 1) / (8 * this.maxH);
+        this.mcusPerColumn = (this.height + 8 * this.maxV - 1) / (8 * this.maxV);
+        for (Component component : frame) {
+            component.allocate();
+        }
+        this.components = frame;
+        return true;
+    }
+
+    protected void readHuffmanTables() throws IOException {
+        int remaining = readUnsignedShort() - 2;
+        while (0 < remaining) {
+            int info = readByte();
+            int[] counts = new int[17];
+            int total = 0;
+            for (int length = 1; length <= 16; length++) {
+                counts[length] = readByte();
+                total += counts[length];
+            }
+            if (256 < total) {
+                throw new IIOException("Invalid JPEG Huffman table");
+            }
+            int[] values = new int[total];
+            for (int ndx = 0; ndx < total; ndx++) {
+                values[ndx] = readByte();
+            }
+            HuffmanTable table = new HuffmanTable(counts, values);
+            if (0 == (info >> 4)) {
+                this.dcTables[info & 0x03] = table;
+            } else {
+                this.acTables[info & 0x03] = table;
+            }
+            remaining -= 17 + total;
+        }
+    }
+
+    protected void readQuantTables() throws IOException {
+        int remaining = readUnsignedShort() - 2;
+        while (0 < remaining) {
+            int info = readByte();
+            boolean wide = 0 != (info >> 4);
+            int[] table = new int[64];
+            for (int ndx = 0; ndx < 64; ndx++) {
+                table[ZIGZAG[ndx]] = wide ? readUnsignedShort() : readByte();
+            }
+            this.quantTables[info & 0x03] = table;
+            remaining -= wide ? 129 : 65;
+        }
+    }
+
+    protected void readAdobeSegment() throws IOException {
+        int length = readUnsignedShort() - 2;
+        if (12 <= length) {
+            byte[] data = new byte[length];
+            for (int ndx = 0; ndx < length; ndx++) {
+                data[ndx] = (byte) readByte();
+            }
+            if ('A' == data[0] && 'd' == data[1] && 'o' == data[2] && 'b' == data[3] && 'e' == data[4]) {
+                this.adobeTransform = data[11] & 0xFF;
+            }
+        } else {
+            skip(length);
+        }
+    }
+
+    protected void skipSegment() throws IOException {
+        skip(readUnsignedShort() - 2);
+    }
+
+    /**
+     * Reads a scan header and decodes its entropy coded data. Scans with
+     * several components are interleaved by MCU, while a scan with a single
+     * component covers just that component's blocks in raster order.
+     *
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected void readScan() throws IOException {
+        readUnsignedShort();
+        int count = readByte();
+        Component[] scan = new Component[count];
+        for (int ndx = 0; ndx < count; ndx++) {
+            int id = readByte();
+            int tables = readByte();
+            for (Component component : this.components) {
+                if (component.id == id) {
+                    scan[ndx] = component;
+                }
+            }
+            if (null == scan[ndx]) {
+                throw new IIOException("Unknown JPEG component " + id);
+            }
+            scan[ndx].dcTable = this.dcTables[(tables >> 4) & 0x03];
+            scan[ndx].acTable = this.acTables[tables & 0x03];
+            scan[ndx].quantTable = this.quantTables[scan[ndx].quantTableId];
+            if (null == scan[ndx].dcTable || null == scan[ndx].acTable || null == scan[ndx].quantTable) {
+                throw new IIOException("Missing JPEG table");
+            }
+            scan[ndx].prediction = 0;
+        }
+        skip(3); //spectral selection and successive approximation, fixed for sequential images
+
+        float[] coefficients = new float[this.blockSize * this.blockSize];
+        this.bitBuffer = 0;
+        this.bitCount = 0;
+        int mcu = 0;
+        if (1 == count) {
+            Component component = scan[0];
+            int blocksPerLine = (((this.width * component.h + this.maxH - 1) / this.maxH) + 7) / 8;
+            int blocksPerColumn = (((this.height * component.v + this.maxV - 1) / this.maxV) + 7) / 8;
+            for (int blockY = 0; blockY < blocksPerColumn; blockY++) {
+                checkCancelled();
+                for (int blockX = 0; blockX < blocksPerLine; blockX++) {
+                    restart(mcu++, scan);
+                    decodeBlock(component, blockX, blockY, coefficients);
+                }
+            }
+        } else {
+            for (int mcuY = 0; mcuY < this.mcusPerColumn; mcuY++) {
+                checkCancelled();
+                for (int mcuX = 0; mcuX < this.mcusPerLine; mcuX++) {
+                    restart(mcu++, scan);
+                    for (Component component : scan) {
+                        for (int v = 0; v < component.v; v++) {
+                            for (int h = 0; h < component.h; h++) {
+                                decodeBlock(component, mcuX * component.h + h, mcuY * component.v + v, coefficients);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        this.bitBuffer = 0;
+        this.bitCount = 0;
+        if (-1 == this.pendingMarker) {
+            this.pendingMarker = findMarker();
+        }
+    }
+
+    protected void checkCancelled() {
+        if (null != this.cancellation) {
+            this.cancellation.check();
+        }
+    }
+
+    /**
+     * Handles the restart marker expected before the given MCU, if restart
+     * intervals are in use. The bit reader and the DC predictions are reset.
+     *
+     * @param mcu  index of the MCU about to be decoded
+     * @param scan components in the scan
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected void restart(final int mcu, final Component[] scan) throws IOException {
+        if (0 == this.restartInterval || 0 == mcu || 0 != mcu % this.restartInterval) {
+            return;
+        }
+        this.bitBuffer = 0;
+        this.bitCount = 0;
+        int marker = -1 != this.pendingMarker ? this.pendingMarker : findMarker();
+        if (MARKER_RST0 > marker || MARKER_RST7 < marker) {
+            throw new IIOException("Missing JPEG restart marker");
+        }
+        this.pendingMarker = -1;
+        for (Component component : scan) {
+            component.prediction = 0;
+        }
+    }
+
+    /**
+     * Decodes one 8x8 block and writes its scaled down samples to the
+     * component plane. Coefficients outside the top left corner that the
+     * scaled IDCT uses are decoded but not kept.
+     *
+     * @param component    component the block belongs to
+     * @param blockX       block column
+     * @param blockY       block row
+     * @param coefficients scratch space for the kept coefficients
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected void decodeBlock(final Component component, final int blockX, final int blockY, final float[] coefficients) throws IOException {
+        int size = this.blockSize;
+        int[] quant = component.quantTable;
+        int category = decodeHuffman(component.dcTable);
+        component.prediction += receiveExtend(category);
+        Arrays.fill(coefficients, 0);
+        coefficients[0] = component.prediction * quant[0];
+        int lastRow = 0;
+        for (int k = 1; k < 64; k++) {
+            int symbol = decodeHuffman(component.acTable);
+            int run = symbol >> 4;
+            category = symbol & 0x0F;
+            if (0 == category) {
+                if (15 != run) {
+                    break;
+                }
+                k += 15;
+                continue;
+            }
+            k += run;
+            if (63 < k) {
+                throw new IIOException("Corrupt JPEG data: bad AC coefficient index");
+            }
+            int value = receiveExtend(category);
+            int pos = ZIGZAG[k];
+            int u = pos & 7;
+            int v = pos >> 3;
+            if (u < size && v < size) {
+                coefficients[v * size + u] = value * quant[pos];
+                lastRow = Math.max(lastRow, v + 1);
+            }
+        }
+
+        int stride = component.stride;
+        if (component.planeHeight <= blockY * size || stride <= blockX * size) {
+            return; //padding block outside the plane
+        }
+        byte[] plane = component.plane;
+        int offset = blockY * size * stride + blockX * size;
+        if (0 == lastRow) {
+            //flat block, the DC term is the block average
+            byte dc = (byte) clamp((int) (coefficients[0] / 8 + 128.5f));
+            for (int y = 0; y < size; y++) {
+                Arrays.fill(plane, offset + y * stride, offset + y * stride + size, dc);
+            }
+            return;
+        }
+        float[] table = this.idct;
+        float[] rows = this.idctRows;
+        for (int v = 0; v < lastRow; v++) {
+            for (int x = 0; x < size; x++) {
+                float sum = 0;
+                for (int u = 0; u < size; u++) {
+                    sum += table[x * size + u] * coefficients[v * size + u];
+                }
+                rows[v * size + x] = sum;
+            }
+        }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float sum = 0;
+                for (int v = 0; v < lastRow; v++) {
+                    sum += table[y * size + v] * rows[v * size + x];
+                }
+                plane[offset + y * stride + x] = (byte) clamp((int) (sum + 128.5f));
+            }
+        }
+    }
+
+    protected static int clamp(final int value) {
+        return 0 > value ? 0 : (255 < value ? 255 : value);
+    }
+
+    /**
+     * Converts the decoded component planes to an image. Grayscale images
+     * come out as {@link java.awt.image.BufferedImage#TYPE_BYTE_GRAY}, the
+     * same as ImageIO decodes them, and everything else as RGB.
+     *
+     * @return decoded image
+     */
+    protected BufferedImage createImage() {
+        int outWidth = (this.width + this.scale - 1) / this.scale;
+        int outHeight = (this.height + this.scale - 1) / this.scale;
+        Component first = this.components[0];
+        if (1 == this.components.length) {
+            BufferedImage img = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            int[] columns = mapColumns(first, outWidth);
+            for (int y = 0; y < outHeight; y++) {
+                int rowStart = y * first.v / this.maxV * first.stride;
+                for (int x = 0; x < outWidth; x++) {
+                    pixels[y * outWidth + x] = first.plane[rowStart + columns[x]];
+                }
+            }
+            return img;
+        }
+
+        BufferedImage img = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        Component second = this.components[1];
+        Component third = this.components[2];
+        boolean ycc = 0 != this.adobeTransform;
+        int[] firstX = mapColumns(first, outWidth);
+        int[] secondX = mapColumns(second, outWidth);
+        int[] thirdX = mapColumns(third, outWidth);
+        for (int y = 0; y < outHeight; y++) {
+            int firstRow = y * first.v / this.maxV * first.stride;
+            int secondRow = y * second.v / this.maxV * second.stride;
+            int thirdRow = y * third.v / this.maxV * third.stride;
+            for (int x = 0; x < outWidth; x++) {
+                int c0 = first.plane[firstRow + firstX[x]] & 0xFF;
+                int c1 = second.plane[secondRow + secondX[x]] & 0xFF;
+                int c2 = third.plane[thirdRow + thirdX[x]] & 0xFF;
+                int rgb;
+                if (ycc) {
+                    int r = clamp(c0 + CR_TO_R[c2]);
+                    int g = clamp(c0 + ((CB_TO_G[c1] + CR_TO_G[c2]) >> 16));
+                    int b = clamp(c0 + CB_TO_B[c1]);
+                    rgb = (r << 16) | (g << 8) | b;
+                } else {
+                    rgb = (c0 << 16) | (c1 << 8) | c2;
+                }
+                pixels[y * outWidth + x] = rgb;
+            }
+        }
+        return img;
+    }
+
+    protected int[] mapColumns(final Component component, final int outWidth) {
+        int[] columns = new int[outWidth];
+        for (int x = 0; x < outWidth; x++) {
+            columns[x] = x * component.h / this.maxH;
+        }
+        return columns;
+    }
+
+    protected int decodeHuffman(final HuffmanTable table) throws IOException {
+        fillBits();
+        int entry = table.lookup[this.bitBuffer >>> (32 - HuffmanTable.LOOKAHEAD)];
+        if (0 != entry) {
+            consumeBits(entry >> 8);
+            return entry & 0xFF;
+        }
+        for (int length = HuffmanTable.LOOKAHEAD + 1; length <= 16; length++) {
+            int code = this.bitBuffer >>> (32 - length);
+            if (code <= table.maxCode[length]) {
+                consumeBits(length);
+                return table.values[table.valueOffset[length] + code];
+            }
+        }
+        throw new IIOException("Corrupt JPEG data: bad Huffman code");
+    }
+
+    protected int receiveExtend(final int category) throws IOException {
+        if (0 == category) {
+            return 0;
+        }
+        if (16 < category) {
+            throw new IIOException("Corrupt JPEG data: bad coefficient size");
+        }
+        fillBits();
+        int value = this.bitBuffer >>> (32 - category);
+        consumeBits(category);
+        if (value < (1 << (category - 1))) {
+            value += (-1 << category) + 1;
+        }
+        return value;
+    }
+
+    /**
+     * Tops up the bit buffer to at least 25 bits. Stuffed zero bytes are
+     * dropped; once a marker is reached, zeros are fed in instead so that a
+     * truncated scan decodes to flat blocks rather than failing.
+     *
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected void fillBits() throws IOException {
+        while (24 >= this.bitCount) {
+            int b = 0;
+            if (-1 == this.pendingMarker) {
+                b = readByteOrEnd();
+                if (-1 == b) {
+                    this.pendingMarker = MARKER_EOI;
+                    b = 0;
+                } else if (0xFF == b) {
+                    int next = readByteOrEnd();
+                    while (0xFF == next) {
+                        next = readByteOrEnd();
+                    }
+                    if (0 != next) {
+                        this.pendingMarker = -1 == next ? MARKER_EOI : next;
+                        b = 0;
+                    }
+                }
+            }
+            this.bitBuffer |= b << (24 - this.bitCount);
+            this.bitCount += 8;
+        }
+    }
+
+    protected void consumeBits(final int count) {
+        this.bitBuffer <<= count;
+        this.bitCount -= count;
+    }
+
+    /**
+     * Skips entropy coded data up to the next marker.
+     *
+     * @return marker code
+     * @throws IOException if an error occurred reading the stream
+     */
+    protected int findMarker() throws IOException {
+        while (true) {
+            int b = readByteOrEnd();
+            if (-1 == b) {
+                return MARKER_EOI;
+            }
+            if (0xFF == b) {
+                int next = readByteOrEnd();
+                while (0xFF == next) {
+                    next = readByteOrEnd();
+                }
+                if (-1 == next) {
+                    return MARKER_EOI;
+                }
+                if (0 != next) {
+                    return next;
+                }
+            }
+        }
+    }
+
+    protected int readMarker() throws IOException {
+        if (-1 != this.pendingMarker) {
+            int marker = this.pendingMarker;
+            this.pendingMarker = -1;
+            return marker;
+        }
+        if (0xFF != readByte()) {
+            throw new IIOException("Corrupt JPEG data: expected a marker");
+        }
+        int marker = readByte();
+        while (0xFF == marker) {
+            marker = readByte();
+        }
+        return marker;
+    }
+
+    protected int readByteOrEnd() throws IOException {
+        if (this.bufferPos == this.bufferLength) {
+            this.bufferLength = this.input.read(this.buffer, 0, this.buffer.length);
+            this.bufferPos = 0;
+            if (0 >= this.bufferLength) {
+                this.bufferLength = 0;
+                return -1;
+            }
+        }
+        return this.buffer[this.bufferPos++] & 0xFF;
+    }
+
+    protected int readByte() throws IOException {
+        int b = readByteOrEnd();
+        if (-1 == b) {
+            throw new IIOException("Premature end of JPEG data");
+        }
+        return b;
+    }
+
+    protected int readUnsignedShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    protected void skip(final int count) throws IOException {
+        for (int ndx = 0; ndx < count; ndx++) {
+            readByte();
+        }
+    }
+
+    /**
+     * One image component and the plane its scaled samples are written to.
+     * The plane covers every block of the padded MCU grid, at blockSize
+     * samples per block side.
+     */
+    protected class Component {
+        private final int          id;
+        private final int          h;
+        private final int          v;
+        private final int          quantTableId;
+        private       HuffmanTable dcTable;
+        private       HuffmanTable acTable;
+        private       int[]        quantTable;
+        private       int          prediction;
+        private       byte[]       plane;
+        private       int          stride;
+        private       int          planeHeight;
+
+        public Component(final int id, final int h, final int v, final int quantTableId) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.quantTableId = quantTableId;
+        }
+
+        protected void allocate() {
+            this.stride = mcusPerLine * this.h * blockSize;
+            this.planeHeight = mcusPerColumn * this.v * blockSize;
+            this.plane = new byte[this.stride * this.planeHeight];
+        }
+    }
+
+    /**
+     * Huffman decoding table, following section F.2.2.3 of the JPEG
+     * specification, with a lookup table for codes up to LOOKAHEAD bits.
+     */
+    protected static class HuffmanTable {
+        private static final int LOOKAHEAD = 9;
+
+        private final int[] lookup;
+        private final int[] maxCode;
+        private final int[] valueOffset;
+        private final int[] values;
+
+        public HuffmanTable(final int[] counts, final int[] values) throws IIOException {
+            this.lookup = new int[1 << LOOKAHEAD];
+            this.maxCode = new int[18];
+            this.valueOffset = new int[17];
+            this.values = values;
+            int code = 0;
+            int ndx = 0;
+            for (int length = 1; length <= 16; length++) {
+                this.valueOffset[length] = ndx - code;
+                for (int count = 0; count < counts[length]; count++) {
+                    if (code >= 1 << length) {
+                        //more codes of this length than there are bit patterns
+                        throw new IIOException("Invalid JPEG Huffman table");
+                    }
+                    if (LOOKAHEAD >= length) {
+                        int shift = LOOKAHEAD - length;
+                        for (int fill = 0; fill < (1 << shift); fill++) {
+                            this.lookup[(code << shift) | fill] = (length << 8) | values[ndx];
+                        }
+                    }
+                    code++;
+                    ndx++;
+                }
+                this.maxCode[length] = 0 < counts[length] ? code - 1 : -1;
+                code <<= 1;
+            }
+            this.maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+/**
+ * Plain least-recently-used eviction. Every entry scores the same, so the
+ * cache always evicts its oldest entry and always admits new ones.
+ *
+ * @since 10/18/26 3:10 PM
+ */
+public class LruPolicy<K> implements EvictionPolicy<K> {
+    @Override
+    public void recordAccess(final K key) {
+    }
+
+    @Override
+    public double getRetentionScore(final K key, final long weight, final long cost) {
+        return 0;
+    }
+
+    @Override
+    public boolean isAdmitted(final double candidateScore, final double victimScore) {
+        return true;
+    }
+}
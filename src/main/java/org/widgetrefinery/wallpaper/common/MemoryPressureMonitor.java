@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tells listeners when the JVM is running low on memory. Rather than polling
+ * the {@link java.lang.Runtime} counters, this sets a collection usage
+ * threshold on every heap pool that supports one, which in practice means the
+ * old generation. The JVM checks that threshold right after a garbage
+ * collection, so listeners hear about memory that is really still in use and
+ * not about garbage that has yet to be collected.
+ * <p/>
+ * Listeners are called on a background thread, one notification at a time,
+ * so they should synchronize with whatever data they trim.
+ *
+ * @see java.lang.management.MemoryPoolMXBean#setCollectionUsageThreshold(long)
+ * @since 10/18/26 2:10 PM
+ */
+public class MemoryPressureMonitor {
+    private static final Logger logger                    = Logger.getLogger(MemoryPressureMonitor.class.getName());
+    private static final int    DEFAULT_PERCENT_THRESHOLD = 75;
+
+    private static MemoryPressureMonitor defaultMonitor;
+
+    private final List<Listener>       listeners;
+    private final ExecutorService      executor;
+    private final NotificationListener notificationListener;
+
+    /**
+     * Creates a new instance that notifies its listeners once a heap pool is
+     * still using more than the given percentage of its maximum size after a
+     * garbage collection.
+     *
+     * @param percentThreshold percentage of a heap pool's maximum size
+     */
+    public MemoryPressureMonitor(final int percentThreshold) {
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "memory-pressure");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.notificationListener = new NotificationListener() {
+            @Override
+            public void handleNotification(final Notification notification, final Object handback) {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    fireMemoryLow();
+                }
+            }
+        };
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (MemoryType.HEAP == pool.getType() && pool.isCollectionUsageThresholdSupported()) {
+                MemoryUsage usage = pool.getUsage();
+                long max = usage.getMax();
+                if (0 < max) {
+                    pool.setCollectionUsageThreshold(max / 100 * percentThreshold);
+                    logger.fine(MessageFormat.format("monitoring {0} at {1}% of {2} bytes", pool.getName(), percentThreshold, max));
+                }
+            }
+        }
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener(this.notificationListener, null, null);
+    }
+
+    /**
+     * Returns the monitor shared by the whole application, which notifies its
+     * listeners once a heap pool is still 75% full after a garbage collection.
+     *
+     * @return shared monitor
+     */
+    public static synchronized MemoryPressureMonitor getDefault() {
+        if (null == defaultMonitor) {
+            defaultMonitor = new MemoryPressureMonitor(DEFAULT_PERCENT_THRESHOLD);
+        }
+        return defaultMonitor;
+    }
+
+    public void addListener(final Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Schedules a call to every listener on the background thread.
+     */
+    protected void fireMemoryLow() {
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                logger.fine("memory is low, notifying " + MemoryPressureMonitor.this.listeners.size() + " listeners");
+                for (Listener listener : MemoryPressureMonitor.this.listeners) {
+                    try {
+                        listener.memoryLow();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "listener failed to free memory", e);
+                    }
+                }
+            }
+        });
+    }
+
+    protected NotificationListener getNotificationListener() {
+        return this.notificationListener;
+    }
+
+    /**
+     * Stops listening for notifications and stops the background thread. The
+     * thresholds set on the heap pools are left in place.
+     */
+    public void close() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this.notificationListener);
+        } catch (ListenerNotFoundException e) {
+            logger.log(Level.FINE, "monitor already closed", e);
+        }
+        this.executor.shutdown();
+    }
+
+    /**
+     * Receives memory pressure notifications.
+     */
+    public interface Listener {
+        /**
+         * Called after a garbage collection left a heap pool above the
+         * monitor's threshold. Implementations should release what memory
+         * they can afford to.
+         */
+        void memoryLow();
+    }
+}
@@ -26,8 +26,19 @@ import org.widgetrefinery.wallpaper.os.OSSupport;
 import org.widgetrefinery.wallpaper.os.OSUtil;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Manages the settings used throughout the application.
@@ -35,13 +46,18 @@ import java.io.IOException;
  * @since 4/11/12 9:57 PM
  */
 public class Model {
-    private final EventBus eventBus;
-    private       File     workingDirectory;
-    private       File     inputFile;
-    private       File     outputFile;
-    private       int      thumbnailsPerRow;
-    private       boolean  configOS;
-    private       boolean  refreshOS;
+    private final EventBus               eventBus;
+    private final Map<File, DesktopInfo> layouts;
+    private       File                   workingDirectory;
+    private       File                   inputFile;
+    private       File                   outputFile;
+    private       int                    thumbnailsPerRow;
+    private       boolean                configOS;
+    private       boolean                refreshOS;
+    private       ResampleFilter         resampleFilter;
+    private       int                    bandBudget;
+    private       int                    cacheSize;
+    private       int                    renderThreads;
 
     /**
      * Creates a new instance with the working directory set to the current directory.
@@ -60,6 +76,7 @@ public class Model {
      */
     public Model(final EventBus eventBus, final File workingDirectory) {
         this.eventBus = eventBus;
+        this.layouts = new LinkedHashMap<File, DesktopInfo>();
         setWorkingDirectory(workingDirectory);
         setThumbnailsPerRow(4);
     }
@@ -224,6 +241,113 @@ public class Model {
         this.refreshOS = refreshOS;
     }
 
+    /**
+     * Get the filter used to resize the wallpaper, or null to use Java2D
+     * bicubic interpolation.
+     *
+     * @return resample filter or null
+     */
+    public ResampleFilter getResampleFilter() {
+        return this.resampleFilter;
+    }
+
+    /**
+     * Set the filter used to resize the wallpaper.
+     *
+     * @param resampleFilter resample filter or null
+     * @see org.widgetrefinery.wallpaper.common.ImageUtil#setResampleFilter(ResampleFilter)
+     */
+    public void setResampleFilter(final ResampleFilter resampleFilter) {
+        this.resampleFilter = resampleFilter;
+    }
+
+    /**
+     * Get the number of megabytes the source image may use while it is
+     * streamed, or 0 if the whole image is loaded into memory.
+     *
+     * @return band budget in megabytes or 0
+     */
+    public int getBandBudget() {
+        return this.bandBudget;
+    }
+
+    /**
+     * Set the number of megabytes the source image may use while it is
+     * streamed. When greater than 0, {@link #process(boolean)} decodes the
+     * source image in bands that fit within the budget instead of loading it
+     * all at once, which allows images larger than the heap to be used.
+     *
+     * @param bandBudget band budget in megabytes or 0
+     * @see org.widgetrefinery.wallpaper.common.ImageUtil#streamImage(java.io.File, java.io.File)
+     */
+    public void setBandBudget(final int bandBudget) {
+        this.bandBudget = bandBudget;
+    }
+
+    /**
+     * Get the number of megabytes of preview thumbnails the GUI may keep in
+     * memory, or 0 to use the default.
+     *
+     * @return cache size in megabytes or 0
+     */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * Set the number of megabytes of preview thumbnails the GUI may keep in
+     * memory. When 0, the cache uses a quarter of the maximum JVM memory.
+     *
+     * @param cacheSize cache size in megabytes or 0
+     * @see org.widgetrefinery.wallpaper.common.BasicCache#getDefaultBudget()
+     */
+    public void setCacheSize(final int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Get the number of threads the GUI uses to render preview thumbnails, or
+     * 0 to use one per available processor.
+     *
+     * @return number of render threads or 0
+     */
+    public int getRenderThreads() {
+        return this.renderThreads;
+    }
+
+    /**
+     * Set the number of threads the GUI uses to render preview thumbnails.
+     * When 0, one thread per available processor is used.
+     *
+     * @param renderThreads number of render threads or 0
+     */
+    public void setRenderThreads(final int renderThreads) {
+        this.renderThreads = renderThreads;
+    }
+
+    /**
+     * Get the additional outputs and the monitor layout each one is formatted
+     * for.
+     *
+     * @return map of output file to monitor layout
+     */
+    public Map<File, DesktopInfo> getLayouts() {
+        return Collections.unmodifiableMap(this.layouts);
+    }
+
+    /**
+     * Add an output formatted for a monitor layout other than the current
+     * one. When {@link #process(boolean)} has several outputs to generate,
+     * the input file is decoded once and all outputs are rendered from it in
+     * parallel.
+     *
+     * @param output file to save the wallpaper to
+     * @param layout monitor layout to format the wallpaper for
+     */
+    public void addLayout(final File output, final DesktopInfo layout) {
+        this.layouts.put(output, layout);
+    }
+
     protected boolean shouldFireEvent(Object v1, Object v2) {
         if (null != v1) {
             return !v1.equals(v2);
@@ -250,23 +374,35 @@ public class Model {
         }
 
         File output = getOutputFile();
-        if (null == output) {
-            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_NO_OUTPUT);
+        Map<File, DesktopInfo> targets = new LinkedHashMap<File, DesktopInfo>();
+        if (null != output) {
+            targets.put(output, null);
         }
-        if (input.equals(output)) {
-            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_SAME_INPUT_OUTPUT, output);
+        targets.putAll(this.layouts);
+        if (targets.isEmpty()) {
+            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_NO_OUTPUT);
         }
-        if (output.exists() && !overwrite) {
-            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_OUTPUT_EXISTS, output);
+        for (File target : targets.keySet()) {
+            if (input.equals(target)) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_SAME_INPUT_OUTPUT, target);
+            }
+            if (target.exists() && !overwrite) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_OUTPUT_EXISTS, target);
+            }
         }
 
-        ImageUtil imageUtil = new ImageUtil();
-        BufferedImage image = imageUtil.formatImage(input);
-        if (null == image) {
-            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_INPUT, input);
+        if (1 == targets.size() || 0 < getBandBudget()) {
+            //streaming never holds the whole image, so each output decodes it separately
+            for (Map.Entry<File, DesktopInfo> target : targets.entrySet()) {
+                process(input, target.getKey(), createImageUtil(target.getValue()));
+            }
+        } else {
+            processLayouts(input, targets);
         }
-        imageUtil.saveImage(image, output);
 
+        if (null == output) {
+            return;
+        }
         OSSupport osSupport = OSUtil.getOSSupport();
         if (null != osSupport) {
             if (isConfigOS()) {
@@ -277,4 +413,92 @@ public class Model {
             }
         }
     }
+
+    /**
+     * Creates the image utility used to format the wallpaper for the given
+     * monitor layout.
+     *
+     * @param layout monitor layout, or null for the current one
+     * @return image utility
+     */
+    protected ImageUtil createImageUtil(final DesktopInfo layout) {
+        ImageUtil imageUtil = null != layout ? new ImageUtil(layout) : new ImageUtil();
+        imageUtil.setResampleFilter(getResampleFilter());
+        imageUtil.setBandBudget(getBandBudget() * 1024L * 1024L);
+        return imageUtil;
+    }
+
+    /**
+     * Formats the input file for one output.
+     *
+     * @param input     image to format
+     * @param output    file to save the wallpaper to
+     * @param imageUtil image utility for the output's monitor layout
+     * @throws BadUserInputException if there is a problem with the user-supplied parameters
+     * @throws IOException           if an IO error occurred
+     */
+    protected void process(final File input, final File output, final ImageUtil imageUtil) throws BadUserInputException, IOException {
+        if (0 < getBandBudget()) {
+            if (!imageUtil.streamImage(input, output)) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_INPUT, input);
+            }
+        } else {
+            RenderedImage image = imageUtil.renderImage(input);
+            if (null == image) {
+                throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_INPUT, input);
+            }
+            imageUtil.saveImage(image, output);
+        }
+    }
+
+    /**
+     * Decodes the input file once and formats it for every output in
+     * parallel, one thread per output up to the number of processors.
+     *
+     * @param input   image to format
+     * @param targets map of output file to monitor layout
+     * @throws BadUserInputException if there is a problem with the user-supplied parameters
+     * @throws IOException           if an IO error occurred
+     * @throws InterruptedException  if the operation was interrupted
+     */
+    protected void processLayouts(final File input, final Map<File, DesktopInfo> targets) throws BadUserInputException, IOException, InterruptedException {
+        final BufferedImage source = ImageUtil.loadImage(input);
+        if (null == source) {
+            throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_INPUT, input);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(targets.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (Map.Entry<File, DesktopInfo> target : targets.entrySet()) {
+                final File output = target.getKey();
+                final ImageUtil imageUtil = createImageUtil(target.getValue());
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        imageUtil.saveImage(imageUtil.renderImage(source), output);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof BadUserInputException) {
+                        throw (BadUserInputException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Array;
+
+/**
+ * Low level helpers that work directly on the arrays backing a
+ * {@link java.awt.image.Raster}, bypassing Java2D compositing.
+ *
+ * @since 10/18/26 10:05 AM
+ */
+public class RasterUtil {
+    /**
+     * Shifts the contents of the given raster in place with wrap around. The
+     * pixel at (x, y) ends up at ((x + offsetX) mod width, (y + offsetY) mod
+     * height). Every row is moved exactly once using a single scratch row.
+     * Rasters backed by a single bank of interleaved or packed pixels are
+     * shifted with {@link System#arraycopy(Object, int, Object, int, int)} on
+     * the backing array; other rasters are shifted row by row through
+     * {@link java.awt.image.Raster#getDataElements(int, int, int, int, Object)}.
+     *
+     * @param raster  raster to shift
+     * @param offsetX horizontal shift, between 0 and width - 1
+     * @param offsetY vertical shift, between 0 and height - 1
+     */
+    public static void wrapShift(final WritableRaster raster, final int offsetX, final int offsetY) {
+        if (0 == offsetX && 0 == offsetY) {
+            return;
+        }
+        RowLayout layout = RowLayout.of(raster);
+        RowShifter shifter = null != layout ? new ArrayRowShifter(layout, offsetX) : new ElementRowShifter(raster, offsetX);
+        int height = raster.getHeight();
+        if (0 == offsetY) {
+            for (int y = 0; y < height; y++) {
+                shifter.save(y);
+                shifter.restore(y);
+            }
+            return;
+        }
+        //rotate the rows one cycle at a time; there are gcd(height, offsetY) cycles
+        int cycles = gcd(height, offsetY);
+        for (int start = 0; start < cycles; start++) {
+            shifter.save(start);
+            int current = start;
+            while (true) {
+                int source = (current - offsetY + height) % height;
+                if (source == start) {
+                    break;
+                }
+                shifter.move(source, current);
+                current = source;
+            }
+            shifter.restore(current);
+        }
+    }
+
+    private static int gcd(final int a, final int b) {
+        return 0 == b ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Returns the primitive array backing the given data buffer, or null if
+     * the buffer type is not one of the standard ones.
+     *
+     * @param dataBuffer data buffer
+     * @return backing array or null
+     */
+    public static Object getArray(final DataBuffer dataBuffer) {
+        if (dataBuffer instanceof DataBufferByte) {
+            return ((DataBufferByte) dataBuffer).getData();
+        } else if (dataBuffer instanceof DataBufferInt) {
+            return ((DataBufferInt) dataBuffer).getData();
+        } else if (dataBuffer instanceof DataBufferUShort) {
+            return ((DataBufferUShort) dataBuffer).getData();
+        } else if (dataBuffer instanceof DataBufferShort) {
+            return ((DataBufferShort) dataBuffer).getData();
+        }
+        return null;
+    }
+
+    /**
+     * Describes where each row of a raster lives in its backing array. Only
+     * rasters with a single bank where each pixel occupies a fixed number of
+     * consecutive array elements can be described.
+     */
+    public static class RowLayout {
+        private final Object array;
+        private final int    origin;
+        private final int    pixelStride;
+        private final int    scanlineStride;
+        private final int    width;
+
+        protected RowLayout(final Object array, final int origin, final int pixelStride, final int scanlineStride, final int width) {
+            this.array = array;
+            this.origin = origin;
+            this.pixelStride = pixelStride;
+            this.scanlineStride = scanlineStride;
+            this.width = width;
+        }
+
+        /**
+         * Describes the given raster, or returns null if its layout is not
+         * supported.
+         *
+         * @param raster raster to describe
+         * @return row layout or null
+         */
+        public static RowLayout of(final Raster raster) {
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            Object array = RasterUtil.getArray(dataBuffer);
+            if (null == array || 1 != dataBuffer.getNumBanks()) {
+                return null;
+            }
+            SampleModel sampleModel = raster.getSampleModel();
+            int pixelStride;
+            int scanlineStride;
+            if (sampleModel instanceof SinglePixelPackedSampleModel) {
+                pixelStride = 1;
+                scanlineStride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+            } else if (sampleModel instanceof ComponentSampleModel) {
+                ComponentSampleModel csm = (ComponentSampleModel) sampleModel;
+                pixelStride = csm.getPixelStride();
+                scanlineStride = csm.getScanlineStride();
+                for (int ndx = 0; ndx < csm.getNumBands(); ndx++) {
+                    int bandOffset = csm.getBandOffsets()[ndx];
+                    if (0 != csm.getBankIndices()[ndx] || 0 > bandOffset || bandOffset >= pixelStride) {
+                        return null;
+                    }
+                }
+            } else {
+                return null;
+            }
+            int origin = dataBuffer.getOffset()
+                         - raster.getSampleModelTranslateY() * scanlineStride
+                         - raster.getSampleModelTranslateX() * pixelStride
+                         + raster.getMinY() * scanlineStride
+                         + raster.getMinX() * pixelStride;
+            return new RowLayout(array, origin, pixelStride, scanlineStride, raster.getWidth());
+        }
+
+        /**
+         * Returns the backing array.
+         *
+         * @return backing array
+         */
+        public Object getArray() {
+            return this.array;
+        }
+
+        /**
+         * Returns the array index of the first element of the given row.
+         *
+         * @param y row, relative to the top of the raster
+         * @return array index
+         */
+        public int getRowStart(final int y) {
+            return this.origin + y * this.scanlineStride;
+        }
+
+        /**
+         * Returns the number of array elements used by one pixel.
+         *
+         * @return elements per pixel
+         */
+        public int getPixelStride() {
+            return this.pixelStride;
+        }
+
+        /**
+         * Returns the number of array elements used by the pixels of one row,
+         * excluding any padding.
+         *
+         * @return elements per row
+         */
+        public int getRowLength() {
+            return this.width * this.pixelStride;
+        }
+    }
+
+    /**
+     * Moves whole rows of a raster while shifting them horizontally.
+     */
+    protected static abstract class RowShifter {
+        /**
+         * Copies the given row into the scratch row.
+         */
+        public abstract void save(int y);
+
+        /**
+         * Copies row "from" into row "to", shifting it horizontally.
+         */
+        public abstract void move(int from, int to);
+
+        /**
+         * Copies the scratch row into the given row, shifting it horizontally.
+         */
+        public abstract void restore(int y);
+    }
+
+    protected static class ArrayRowShifter extends RowShifter {
+        private final RowLayout layout;
+        private final Object    array;
+        private final Object    scratch;
+        private final int       length;
+        private final int       shift;
+
+        public ArrayRowShifter(final RowLayout layout, final int offsetX) {
+            this.layout = layout;
+            this.array = layout.getArray();
+            this.length = layout.getRowLength();
+            this.scratch = Array.newInstance(this.array.getClass().getComponentType(), this.length);
+            this.shift = offsetX * layout.getPixelStride();
+        }
+
+        @Override
+        public void save(final int y) {
+            System.arraycopy(this.array, this.layout.getRowStart(y), this.scratch, 0, this.length);
+        }
+
+        @Override
+        public void move(final int from, final int to) {
+            copy(this.array, this.layout.getRowStart(from), this.layout.getRowStart(to));
+        }
+
+        @Override
+        public void restore(final int y) {
+            copy(this.scratch, 0, this.layout.getRowStart(y));
+        }
+
+        private void copy(final Object src, final int srcPos, final int dstPos) {
+            System.arraycopy(src, srcPos, this.array, dstPos + this.shift, this.length - this.shift);
+            System.arraycopy(src, srcPos + this.length - this.shift, this.array, dstPos, this.shift);
+        }
+    }
+
+    protected static class ElementRowShifter extends RowShifter {
+        private final WritableRaster raster;
+        private final int            width;
+        private final int            offsetX;
+        private       Object         scratch;
+        private       Object         row;
+
+        public ElementRowShifter(final WritableRaster raster, final int offsetX) {
+            this.raster = raster;
+            this.width = raster.getWidth();
+            this.offsetX = offsetX;
+        }
+
+        @Override
+        public void save(final int y) {
+            this.scratch = this.raster.getDataElements(this.raster.getMinX(), this.raster.getMinY() + y, this.width, 1, this.scratch);
+        }
+
+        @Override
+        public void move(final int from, final int to) {
+            this.row = this.raster.getDataElements(this.raster.getMinX(), this.raster.getMinY() + from, this.width, 1, this.row);
+            write(this.row, to);
+        }
+
+        @Override
+        public void restore(final int y) {
+            write(this.scratch, y);
+        }
+
+        private void write(final Object elements, final int y) {
+            int minX = this.raster.getMinX();
+            int minY = this.raster.getMinY() + y;
+            int elementsPerPixel = Array.getLength(elements) / this.width;
+            int split = this.width - this.offsetX;
+            this.raster.setDataElements(minX + this.offsetX, minY, split, 1, slice(elements, 0, split * elementsPerPixel));
+            if (0 < this.offsetX) {
+                this.raster.setDataElements(minX, minY, this.offsetX, 1, slice(elements, split * elementsPerPixel, this.offsetX * elementsPerPixel));
+            }
+        }
+
+        private static Object slice(final Object elements, final int start, final int length) {
+            Object result = Array.newInstance(elements.getClass().getComponentType(), length);
+            System.arraycopy(elements, start, result, 0, length);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import org.widgetrefinery.util.BadUserInputException;
+
+/**
+ * List of interpolation filters supported by
+ * {@link org.widgetrefinery.wallpaper.common.Resampler}. Each filter is
+ * described by a kernel function and the distance, in source pixels, beyond
+ * which the kernel is zero.
+ *
+ * @see org.widgetrefinery.wallpaper.common.Resampler
+ * @since 10/18/26 9:12 AM
+ */
+public enum ResampleFilter {
+    /**
+     * Nearest neighbor when enlarging, area average when shrinking.
+     */
+    BOX(0.5) {
+        @Override
+        public double weight(final double x) {
+            return -0.5 <= x && x < 0.5 ? 1.0 : 0.0;
+        }
+    },
+    /**
+     * Linear interpolation between the two closest pixels.
+     */
+    BILINEAR(1.0) {
+        @Override
+        public double weight(final double x) {
+            double ax = Math.abs(x);
+            return 1.0 > ax ? 1.0 - ax : 0.0;
+        }
+    },
+    /**
+     * Keys cubic convolution with a = -0.5, the same kernel Java2D uses for
+     * {@link java.awt.RenderingHints#VALUE_INTERPOLATION_BICUBIC}.
+     */
+    BICUBIC(2.0) {
+        @Override
+        public double weight(final double x) {
+            final double a = -0.5;
+            double ax = Math.abs(x);
+            if (1.0 > ax) {
+                return ((a + 2.0) * ax - (a + 3.0)) * ax * ax + 1.0;
+            } else if (2.0 > ax) {
+                return ((a * ax - 5.0 * a) * ax + 8.0 * a) * ax - 4.0 * a;
+            }
+            return 0.0;
+        }
+    },
+    /**
+     * Windowed sinc with three lobes. Sharpest of the supported filters.
+     */
+    LANCZOS3(3.0) {
+        @Override
+        public double weight(final double x) {
+            double ax = Math.abs(x);
+            if (0.0 == ax) {
+                return 1.0;
+            } else if (3.0 > ax) {
+                double px = Math.PI * x;
+                return 3.0 * Math.sin(px) * Math.sin(px / 3.0) / (px * px);
+            }
+            return 0.0;
+        }
+    };
+
+    private final double support;
+
+    private ResampleFilter(final double support) {
+        this.support = support;
+    }
+
+    /**
+     * Returns the distance from the center, in pixels, beyond which
+     * {@link #weight(double)} is always zero.
+     *
+     * @return kernel radius
+     */
+    public double getSupport() {
+        return this.support;
+    }
+
+    /**
+     * Evaluates the filter kernel at the given distance from the center.
+     *
+     * @param x distance from the center, in pixels
+     * @return kernel value
+     */
+    public abstract double weight(double x);
+
+    /**
+     * Looks up a filter by its case insensitive name.
+     *
+     * @param name filter name, such as "lanczos3"
+     * @return matching filter
+     * @throws BadUserInputException if there is no such filter
+     */
+    public static ResampleFilter fromName(final String name) throws BadUserInputException {
+        for (ResampleFilter filter : values()) {
+            if (filter.name().equalsIgnoreCase(name)) {
+                return filter;
+            }
+        }
+        throw new BadUserInputException(WallpaperTranslationKey.PROCESS_ERROR_BAD_SCALE_FILTER, name);
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Resizes images using a separable
+ * {@link org.widgetrefinery.wallpaper.common.ResampleFilter}. The filter
+ * weights for each direction are computed once up front in a
+ * {@link org.widgetrefinery.wallpaper.common.Resampler.Plan}. The output is
+ * then split into bands of rows which are processed in parallel on a
+ * {@link java.util.concurrent.ForkJoinPool}. Each band reads only the source
+ * rows it needs from a {@link org.widgetrefinery.wallpaper.common.Resampler.RowSource},
+ * resizes them horizontally and then vertically, and hands the finished rows
+ * to a {@link org.widgetrefinery.wallpaper.common.Resampler.RowSink}, so no
+ * intermediate image the size of the source is ever allocated.
+ * <p/>
+ * When shrinking, the filter is widened by the scale factor so that every
+ * source pixel contributes to the result. This makes
+ * {@link org.widgetrefinery.wallpaper.common.ResampleFilter#BOX} an area
+ * average filter.
+ * <p/>
+ * Colours are filtered premultiplied by alpha, so that fully transparent
+ * pixels do not bleed their colour into the visible edges next to them.
+ *
+ * @see org.widgetrefinery.wallpaper.common.ResampleFilter
+ * @since 10/18/26 9:12 AM
+ */
+public class Resampler {
+    private static final int BAND_HEIGHT = 32; //output rows processed per task before splitting stops
+
+    private static ForkJoinPool sharedPool;
+
+    private final ResampleFilter filter;
+    private final ForkJoinPool   pool;
+
+    /**
+     * Creates a new instance that uses a pool shared by all resamplers, sized
+     * to the number of available processors.
+     *
+     * @param filter interpolation filter
+     */
+    public Resampler(final ResampleFilter filter) {
+        this(filter, getSharedPool());
+    }
+
+    /**
+     * Creates a new instance that runs on the given pool.
+     *
+     * @param filter interpolation filter
+     * @param pool   pool to run on
+     */
+    public Resampler(final ResampleFilter filter, final ForkJoinPool pool) {
+        this.filter = filter;
+        this.pool = pool;
+    }
+
+    protected static synchronized ForkJoinPool getSharedPool() {
+        if (null == sharedPool) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sharedPool;
+    }
+
+    public ResampleFilter getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * Resizes the given image to the given dimensions. The result is either
+     * {@link java.awt.image.BufferedImage#TYPE_INT_ARGB} or
+     * {@link java.awt.image.BufferedImage#TYPE_INT_RGB} depending on whether
+     * the source image has an alpha channel.
+     *
+     * @param img    image to resize
+     * @param width  new width
+     * @param height new height
+     * @return resized image
+     */
+    public BufferedImage resize(final BufferedImage img, final int width, final int height) {
+        return resize(img, width, height, 0, 0);
+    }
+
+    /**
+     * Resizes the given image to the given dimensions and shifts it with wrap
+     * around in the same pass. The resized pixel at (x, y) ends up at
+     * ((x + offsetX) mod width, (y + offsetY) mod height). Only one image of
+     * the final size is allocated.
+     *
+     * @param img     image to resize
+     * @param width   new width
+     * @param height  new height
+     * @param offsetX horizontal shift, between 0 and width - 1
+     * @param offsetY vertical shift, between 0 and height - 1
+     * @return resized and shifted image
+     */
+    public BufferedImage resize(final BufferedImage img, final int width, final int height, final int offsetX, final int offsetY) {
+        boolean alpha = img.getColorModel().hasAlpha();
+        BufferedImage result = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        resize(img, width, height, offsetX, offsetY, new ImageRowSink(result));
+        return result;
+    }
+
+    /**
+     * Resizes the given image to the given dimensions and shifts it with wrap
+     * around, handing the finished rows to the given sink instead of
+     * allocating a result image.
+     *
+     * @param img     image to resize
+     * @param width   new width
+     * @param height  new height
+     * @param offsetX horizontal shift, between 0 and width - 1
+     * @param offsetY vertical shift, between 0 and height - 1
+     * @param sink    receives the resized rows
+     */
+    public void resize(final BufferedImage img, final int width, final int height, final int offsetX, final int offsetY, final RowSink sink) {
+        Plan plan = createPlan(img.getWidth(), img.getHeight(), width, height);
+        resample(plan, new ImageRowSource(img, 0), img.getColorModel().hasAlpha(), 0, height, offsetX, offsetY, sink);
+    }
+
+    /**
+     * Computes the filter weights for resizing between the given dimensions.
+     *
+     * @param srcWidth  source width
+     * @param srcHeight source height
+     * @param width     new width
+     * @param height    new height
+     * @return resampling plan
+     */
+    public Plan createPlan(final int srcWidth, final int srcHeight, final int width, final int height) {
+        return new Plan(new WeightTable(this.filter, srcWidth, width), new WeightTable(this.filter, srcHeight, height));
+    }
+
+    /**
+     * Computes output rows y1 (inclusive) to y2 (exclusive) and hands them to
+     * the given sink, shifted with wrap around. The source is only asked for
+     * the rows between {@link Plan#getFirstSourceRow(int)} of y1 and
+     * {@link Plan#getLastSourceRow(int)} of y2 - 1.
+     *
+     * @param plan    filter weights
+     * @param source  provides the source rows
+     * @param alpha   whether the alpha channel should be computed
+     * @param y1      first output row
+     * @param y2      last output row, exclusive
+     * @param offsetX horizontal shift, between 0 and width - 1
+     * @param offsetY vertical shift, between 0 and height - 1
+     * @param sink    receives the resized rows
+     */
+    public void resample(final Plan plan,
+                         final RowSource source,
+                         final boolean alpha,
+                         final int y1,
+                         final int y2,
+                         final int offsetX,
+                         final int offsetY,
+                         final RowSink sink) {
+        final int srcWidth = plan.horizontal.srcSize;
+        final int width = plan.horizontal.dstSize;
+        final int height = plan.vertical.dstSize;
+        this.pool.invoke(new BandTask(y1, y2) {
+            @Override
+            protected void compute(final int y1, final int y2) {
+                int firstRow = plan.getFirstSourceRow(y1);
+                int rowCount = plan.getLastSourceRow(y2 - 1) - firstRow;
+                int[] src = new int[srcWidth * rowCount];
+                source.read(firstRow, rowCount, src);
+
+                float[] acc = new float[4 * width];
+                int[] tmp = new int[width * rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    plan.horizontal.applyHorizontal(src, row * srcWidth, acc, alpha);
+                    pack(acc, 0, tmp, row * width, width, alpha, false);
+                }
+
+                int[] result = new int[width];
+                for (int y = y1; y < y2; y++) {
+                    plan.vertical.applyVertical(tmp, firstRow, y, acc, alpha);
+                    pack(acc, 0, result, 0, width, alpha, true);
+                    int targetY = (y + offsetY) % height;
+                    sink.setRow(offsetX, targetY, result, 0, width - offsetX);
+                    if (0 < offsetX) {
+                        sink.setRow(0, targetY, result, width - offsetX, offsetX);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Converts accumulated channel values back into packed ARGB integers,
+     * rounding and clamping each channel. With an alpha channel the colour
+     * channels are premultiplied, and they are either kept that way, for the
+     * intermediate rows, or divided by alpha again, for the finished rows.
+     *
+     * @param acc           accumulated a, r, g, b values
+     * @param accOffset     first pixel to convert
+     * @param dst           packed ARGB destination
+     * @param offset        where in dst to write the first pixel
+     * @param count         number of pixels to convert
+     * @param alpha         whether the alpha channel is meaningful
+     * @param unpremultiply whether to divide the colour channels by alpha
+     */
+    protected static void pack(final float[] acc,
+                               final int accOffset,
+                               final int[] dst,
+                               final int offset,
+                               final int count,
+                               final boolean alpha,
+                               final boolean unpremultiply) {
+        for (int ndx = 0, accNdx = 4 * accOffset; ndx < count; ndx++, accNdx += 4) {
+            int a = alpha ? clamp(acc[accNdx]) : 0xFF;
+            float scale = 1;
+            if (alpha && unpremultiply) {
+                scale = 0 < acc[accNdx] ? 255F / acc[accNdx] : 0;
+            }
+            int r = clamp(scale * acc[accNdx + 1]);
+            int g = clamp(scale * acc[accNdx + 2]);
+            int b = clamp(scale * acc[accNdx + 3]);
+            dst[offset + ndx] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int clamp(final float value) {
+        int result = (int) (value + 0.5F);
+        return 0 > result ? 0 : (255 < result ? 255 : result);
+    }
+
+    /**
+     * Provides rows of source pixels as packed ARGB integers. Different bands
+     * may be read concurrently from different threads.
+     */
+    public interface RowSource {
+        /**
+         * Copies source rows y to y + count - 1 into the given buffer, one
+         * row after another.
+         *
+         * @param y      first source row
+         * @param count  number of rows
+         * @param buffer destination, at least count * source width long
+         */
+        void read(int y, int count, int[] buffer);
+    }
+
+    /**
+     * Receives finished rows of packed ARGB pixels. Different rows may be
+     * delivered concurrently from different threads.
+     */
+    public interface RowSink {
+        /**
+         * Stores pixels (x, y) to (x + length - 1, y).
+         *
+         * @param x      first column
+         * @param y      row
+         * @param pixels packed ARGB pixels
+         * @param offset index of the first pixel to store
+         * @param length number of pixels to store
+         */
+        void setRow(int x, int y, int[] pixels, int offset, int length);
+    }
+
+    /**
+     * Reads rows from a {@link java.awt.image.BufferedImage} whose top row is
+     * the given source row. Integer images are copied straight from their
+     * backing array.
+     */
+    public static class ImageRowSource implements RowSource {
+        private final BufferedImage        img;
+        private final int                  originY;
+        private final RasterUtil.RowLayout layout;
+
+        public ImageRowSource(final BufferedImage img, final int originY) {
+            this.img = img;
+            this.originY = originY;
+            int type = img.getType();
+            if (BufferedImage.TYPE_INT_RGB == type || BufferedImage.TYPE_INT_ARGB == type) {
+                this.layout = RasterUtil.RowLayout.of(img.getRaster());
+            } else {
+                this.layout = null;
+            }
+        }
+
+        @Override
+        public void read(final int y, final int count, final int[] buffer) {
+            int width = this.img.getWidth();
+            if (null != this.layout) {
+                int[] data = (int[]) this.layout.getArray();
+                for (int row = 0; row < count; row++) {
+                    System.arraycopy(data, this.layout.getRowStart(y - this.originY + row), buffer, row * width, width);
+                }
+            } else {
+                this.img.getRGB(0, y - this.originY, width, count, buffer, 0, width);
+            }
+        }
+    }
+
+    /**
+     * Writes rows into a {@link java.awt.image.BufferedImage} of type
+     * {@link java.awt.image.BufferedImage#TYPE_INT_RGB} or
+     * {@link java.awt.image.BufferedImage#TYPE_INT_ARGB}.
+     */
+    public static class ImageRowSink implements RowSink {
+        private final int[] data;
+        private final int   width;
+
+        public ImageRowSink(final BufferedImage img) {
+            this.data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            this.width = img.getWidth();
+        }
+
+        @Override
+        public void setRow(final int x, final int y, final int[] pixels, final int offset, final int length) {
+            System.arraycopy(pixels, offset, this.data, y * this.width + x, length);
+        }
+    }
+
+    /**
+     * Filter weights for resizing between two specific dimensions.
+     */
+    public static class Plan {
+        private final WeightTable horizontal;
+        private final WeightTable vertical;
+
+        protected Plan(final WeightTable horizontal, final WeightTable vertical) {
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+        }
+
+        /**
+         * Returns the first source row read for the given output row.
+         *
+         * @param y output row
+         * @return first source row
+         */
+        public int getFirstSourceRow(final int y) {
+            return this.vertical.start[y];
+        }
+
+        /**
+         * Returns the source row just past the last one read for the given
+         * output row.
+         *
+         * @param y output row
+         * @return last source row, exclusive
+         */
+        public int getLastSourceRow(final int y) {
+            return this.vertical.start[y] + this.vertical.window;
+        }
+    }
+
+    /**
+     * Precomputed filter weights for resampling one dimension. Every
+     * destination pixel reads the same number of consecutive source pixels,
+     * which keeps the weights in a single flat array.
+     */
+    protected static class WeightTable {
+        private final int     srcSize;
+        private final int     dstSize;
+        private final int[]   start;
+        private final int     window;
+        private final float[] weights;
+
+        public WeightTable(final ResampleFilter filter, final int srcSize, final int dstSize) {
+            double scale = ((double) dstSize) / srcSize;
+            double filterScale = Math.max(1.0, 1.0 / scale);
+            double support = filter.getSupport() * filterScale;
+            int window = Math.min(srcSize, (int) Math.ceil(2.0 * support) + 1);
+            int[] start = new int[dstSize];
+            float[] weights = new float[dstSize * window];
+            for (int ndx = 0; ndx < dstSize; ndx++) {
+                double center = (ndx + 0.5) / scale;
+                int first = (int) Math.floor(center - support);
+                first = Math.max(0, Math.min(srcSize - window, first));
+                start[ndx] = first;
+                double sum = 0.0;
+                for (int tap = 0; tap < window; tap++) {
+                    double weight = filter.weight((first + tap + 0.5 - center) / filterScale);
+                    weights[ndx * window + tap] = (float) weight;
+                    sum += weight;
+                }
+                if (0.0 == sum) {
+                    int nearest = Math.max(first, Math.min(first + window - 1, (int) center));
+                    weights[ndx * window + nearest - first] = 1.0F;
+                } else {
+                    for (int tap = 0; tap < window; tap++) {
+                        weights[ndx * window + tap] /= sum;
+                    }
+                }
+            }
+            this.srcSize = srcSize;
+            this.dstSize = dstSize;
+            this.start = start;
+            this.window = window;
+            this.weights = weights;
+        }
+
+        /**
+         * Resizes one source row into the given accumulator, four floats
+         * (a, r, g, b) per output pixel.
+         *
+         * @param src    packed ARGB source pixels
+         * @param offset index of the first pixel of the source row
+         * @param acc    accumulator for one output row
+         * @param alpha  whether the alpha channel should be computed and the
+         *               colour channels premultiplied by it
+         */
+        public void applyHorizontal(final int[] src, final int offset, final float[] acc, final boolean alpha) {
+            for (int x = 0, accNdx = 0; x < this.dstSize; x++, accNdx += 4) {
+                int srcNdx = offset + this.start[x];
+                int weightNdx = x * this.window;
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int tap = 0; tap < this.window; tap++) {
+                    int pixel = src[srcNdx + tap];
+                    float weight = this.weights[weightNdx + tap];
+                    if (alpha) {
+                        a += weight * (pixel >>> 24);
+                        weight *= (pixel >>> 24) / 255F; //premultiply the colour channels
+                    }
+                    r += weight * ((pixel >> 16) & 0xFF);
+                    g += weight * ((pixel >> 8) & 0xFF);
+                    b += weight * (pixel & 0xFF);
+                }
+                acc[accNdx] = a;
+                acc[accNdx + 1] = r;
+                acc[accNdx + 2] = g;
+                acc[accNdx + 3] = b;
+            }
+        }
+
+        /**
+         * Computes one output row as the weighted sum of whole rows that have
+         * already been resized horizontally.
+         *
+         * @param rows     horizontally resized rows, acc.length / 4 pixels each,
+         *                 premultiplied if there is an alpha channel
+         * @param firstRow source row held in the first row of rows
+         * @param y        output row
+         * @param acc      accumulator for one output row
+         * @param alpha    whether the alpha channel should be computed
+         */
+        public void applyVertical(final int[] rows, final int firstRow, final int y, final float[] acc, final boolean alpha) {
+            int width = acc.length / 4;
+            Arrays.fill(acc, 0.0F);
+            int weightNdx = y * this.window;
+            for (int tap = 0; tap < this.window; tap++) {
+                float weight = this.weights[weightNdx + tap];
+                int srcNdx = (this.start[y] + tap - firstRow) * width;
+                for (int x = 0, accNdx = 0; x < width; x++, accNdx += 4) {
+                    int pixel = rows[srcNdx + x];
+                    if (alpha) {
+                        acc[accNdx] += weight * (pixel >>> 24);
+                    }
+                    acc[accNdx + 1] += weight * ((pixel >> 16) & 0xFF);
+                    acc[accNdx + 2] += weight * ((pixel >> 8) & 0xFF);
+                    acc[accNdx + 3] += weight * (pixel & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes a range of rows, splitting it in half until it is no larger
+     * than {@link #BAND_HEIGHT} so that idle workers can steal bands.
+     */
+    protected static abstract class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int y1;
+        private final int y2;
+
+        protected BandTask(final int y1, final int y2) {
+            this.y1 = y1;
+            this.y2 = y2;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.y2 - this.y1 <= BAND_HEIGHT) {
+                if (this.y1 < this.y2) {
+                    compute(this.y1, this.y2);
+                }
+            } else {
+                final int mid = (this.y1 + this.y2) >>> 1;
+                final BandTask parent = this;
+                invokeAll(new BandTask(this.y1, mid) {
+                    @Override
+                    protected void compute(final int y1, final int y2) {
+                        parent.compute(y1, y2);
+                    }
+                }, new BandTask(mid, this.y2) {
+                    @Override
+                    protected void compute(final int y1, final int y2) {
+                        parent.compute(y1, y2);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Processes rows y1 (inclusive) to y2 (exclusive).
+         */
+        protected abstract void compute(int y1, int y2);
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent store for preview thumbnails, so that reopening a directory
+ * does not decode every image again. Thumbnails are JPEG encoded and
+ * appended to a single pack file. A memory-mapped index, an open addressing
+ * hash table, maps each key to the position of its record in the pack.
+ * <p/>
+ * A thumbnail is keyed by the image's path, size and modification time plus
+ * the bounds and monitor layout it was rendered for, so editing an image or
+ * changing the thumbnail size simply misses the old entry. Every pack record
+ * also holds its full key, which is checked on lookup to guard against hash
+ * collisions. Superseded records are never reclaimed; instead the store is
+ * wiped once the pack grows past a fixed size.
+ * <p/>
+ * Only one process can use the store at a time. If the files are locked by
+ * another process or cannot be opened, the store quietly does nothing.
+ *
+ * @since 10/18/26 12:30 PM
+ */
+public class ThumbnailStore {
+    private static final Logger  logger           = Logger.getLogger(ThumbnailStore.class.getName());
+    private static final Charset UTF8             = Charset.forName("UTF-8");
+    private static final int     MAGIC            = 0x57525448; //WRTH
+    private static final int     VERSION          = 1;
+    private static final int     HEADER_SIZE      = 16; //magic, version, capacity, count
+    private static final int     SLOT_SIZE        = 24; //hash, offset, length, padding
+    private static final int     INITIAL_CAPACITY = 1024;
+    private static final long    MAX_PACK_SIZE    = 256L * 1024 * 1024;
+
+    private final File             indexFile;
+    private final File             packFile;
+    private       RandomAccessFile index;
+    private       RandomAccessFile pack;
+    private       FileLock         lock;
+    private       MappedByteBuffer slots;
+    private       int              capacity;
+    private       int              count;
+
+    /**
+     * Opens the store in the given directory, creating it if needed.
+     *
+     * @param directory directory holding the store files
+     */
+    public ThumbnailStore(final File directory) {
+        this.indexFile = new File(directory, "thumbnails.idx");
+        this.packFile = new File(directory, "thumbnails.pack");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("unable to create " + directory);
+            }
+            open();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "thumbnail store disabled", e);
+            close();
+        }
+    }
+
+    /**
+     * Returns the directory used by default, under the user's home
+     * directory.
+     *
+     * @return default store directory
+     */
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("user.home"), ".wallpaper-refinery");
+    }
+
+    protected void open() throws IOException {
+        this.index = new RandomAccessFile(this.indexFile, "rw");
+        try {
+            this.lock = this.index.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            this.lock = null; //held by another store in this process
+        }
+        if (null == this.lock) {
+            throw new IOException("thumbnail store is in use by another process");
+        }
+        this.pack = new RandomAccessFile(this.packFile, "rw");
+        if (HEADER_SIZE > this.index.length() || !map()) {
+            reset();
+        }
+    }
+
+    /**
+     * Maps the existing index, returning false if it is not valid.
+     */
+    private boolean map() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        this.index.getChannel().read(header, 0);
+        header.flip();
+        if (MAGIC != header.getInt() || VERSION != header.getInt()) {
+            return false;
+        }
+        int capacity = header.getInt();
+        int count = header.getInt();
+        if (0 >= capacity || 0 != (capacity & (capacity - 1)) || HEADER_SIZE + ((long) capacity) * SLOT_SIZE != this.index.length()) {
+            return false;
+        }
+        this.slots = this.index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.index.length());
+        this.capacity = capacity;
+        this.count = count;
+        return true;
+    }
+
+    /**
+     * Empties both files and starts over with an empty index.
+     */
+    private void reset() throws IOException {
+        this.pack.setLength(0);
+        //never shrink a mapped index since some platforms cannot truncate mapped files
+        resize(null != this.slots ? this.capacity : INITIAL_CAPACITY, new long[0], new long[0], new int[0]);
+    }
+
+    /**
+     * Recreates the index with the given capacity and inserts the given
+     * entries into it.
+     */
+    private void resize(final int capacity, final long[] hashes, final long[] offsets, final int[] lengths) throws IOException {
+        long size = HEADER_SIZE + ((long) capacity) * SLOT_SIZE;
+        this.index.setLength(size);
+        this.slots = this.index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        byte[] zeros = new byte[SLOT_SIZE * 64];
+        this.slots.position(HEADER_SIZE);
+        while (this.slots.hasRemaining()) {
+            this.slots.put(zeros, 0, Math.min(zeros.length, this.slots.remaining()));
+        }
+        this.slots.putInt(0, MAGIC);
+        this.slots.putInt(4, VERSION);
+        this.slots.putInt(8, capacity);
+        this.capacity = capacity;
+        this.count = 0;
+        for (int ndx = 0; ndx < hashes.length; ndx++) {
+            insert(hashes[ndx], offsets[ndx], lengths[ndx]);
+        }
+        this.slots.putInt(12, this.count);
+    }
+
+    /**
+     * Releases the store files. The store does nothing once closed.
+     */
+    public synchronized void close() {
+        this.slots = null;
+        try {
+            if (null != this.lock) {
+                this.lock.release();
+            }
+            if (null != this.pack) {
+                this.pack.close();
+            }
+            if (null != this.index) {
+                this.index.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "failed to close thumbnail store", e);
+        }
+        this.lock = null;
+        this.pack = null;
+        this.index = null;
+    }
+
+    /**
+     * Returns the thumbnail of the given file rendered by the given image
+     * utility, or null if it is not in the store.
+     *
+     * @param file      image file
+     * @param imageUtil image utility the thumbnail was rendered with
+     * @return thumbnail or null
+     */
+    public BufferedImage get(final File file, final ImageUtil imageUtil) {
+        String key = createKey(file, imageUtil);
+        long hash = hash(key);
+        long offset;
+        int length;
+        RandomAccessFile pack;
+        synchronized (this) {
+            if (null == this.slots) {
+                return null;
+            }
+            int slot = find(hash);
+            if (0 == this.slots.getLong(slotPosition(slot))) {
+                return null;
+            }
+            offset = this.slots.getLong(slotPosition(slot) + 8);
+            length = this.slots.getInt(slotPosition(slot) + 16);
+            pack = this.pack;
+        }
+        try {
+            ByteBuffer record = ByteBuffer.allocate(length);
+            while (record.hasRemaining()) {
+                if (0 > pack.getChannel().read(record, offset + record.position())) {
+                    return null;
+                }
+            }
+            record.flip();
+            byte[] recordKey = new byte[record.getInt()];
+            record.get(recordKey);
+            if (!Arrays.equals(key.getBytes(UTF8), recordKey)) {
+                return null;
+            }
+            byte[] data = new byte[record.getInt()];
+            record.get(data);
+            return ImageIO.read(new ByteArrayInputStream(data));
+        } catch (Exception e) {
+            logger.log(Level.FINE, "failed to read thumbnail for " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the thumbnail of the given file rendered by the given image
+     * utility, replacing any previous one.
+     *
+     * @param file      image file
+     * @param imageUtil image utility the thumbnail was rendered with
+     * @param image     thumbnail
+     */
+    public void put(final File file, final ImageUtil imageUtil, final BufferedImage image) {
+        String key = createKey(file, imageUtil);
+        byte[] record;
+        try {
+            record = createRecord(key, image);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "failed to encode thumbnail for " + file, e);
+            return;
+        }
+        synchronized (this) {
+            if (null == this.slots) {
+                return;
+            }
+            try {
+                if (this.pack.length() + record.length > MAX_PACK_SIZE) {
+                    reset();
+                }
+                long offset = this.pack.length();
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    this.pack.getChannel().write(buffer, offset + buffer.position());
+                }
+                if ((this.count + 1) * 10L > this.capacity * 7L) {
+                    grow();
+                }
+                insert(hash(key), offset, record.length);
+                this.slots.putInt(12, this.count);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "thumbnail store disabled", e);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of thumbnails in the store.
+     *
+     * @return thumbnail count
+     */
+    public synchronized int size() {
+        return this.count;
+    }
+
+    private void grow() throws IOException {
+        long[] hashes = new long[this.count];
+        long[] offsets = new long[this.count];
+        int[] lengths = new int[this.count];
+        for (int slot = 0, ndx = 0; slot < this.capacity; slot++) {
+            int position = slotPosition(slot);
+            long hash = this.slots.getLong(position);
+            if (0 != hash) {
+                hashes[ndx] = hash;
+                offsets[ndx] = this.slots.getLong(position + 8);
+                lengths[ndx] = this.slots.getInt(position + 16);
+                ndx++;
+            }
+        }
+        resize(2 * this.capacity, hashes, offsets, lengths);
+    }
+
+    private void insert(final long hash, final long offset, final int length) {
+        int position = slotPosition(find(hash));
+        if (0 == this.slots.getLong(position)) {
+            this.count++;
+        }
+        this.slots.putLong(position, hash);
+        this.slots.putLong(position + 8, offset);
+        this.slots.putInt(position + 16, length);
+    }
+
+    /**
+     * Returns the slot holding the given hash, or the empty slot where it
+     * would be inserted.
+     */
+    private int find(final long hash) {
+        int slot = (int) (hash ^ (hash >>> 32)) & (this.capacity - 1);
+        while (true) {
+            long current = this.slots.getLong(slotPosition(slot));
+            if (0 == current || hash == current) {
+                return slot;
+            }
+            slot = (slot + 1) & (this.capacity - 1);
+        }
+    }
+
+    private static int slotPosition(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Builds the key identifying a thumbnail.
+     *
+     * @param file      image file
+     * @param imageUtil image utility the thumbnail is rendered with
+     * @return thumbnail key
+     */
+    protected static String createKey(final File file, final ImageUtil imageUtil) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(file.getAbsolutePath()).append('|').append(file.length()).append('|').append(file.lastModified());
+        Rectangle bounds = imageUtil.getBounds();
+        sb.append('|').append(bounds.width).append('x').append(bounds.height);
+        for (Rectangle monitor : imageUtil.getMonitors()) {
+            sb.append('|').append(monitor.x).append(',').append(monitor.y).append(',').append(monitor.width).append(',').append(monitor.height);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Computes a 64 bit FNV-1a hash of the given key. Zero marks empty index
+     * slots, so it is never returned.
+     */
+    private static long hash(final String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int ndx = 0; ndx < key.length(); ndx++) {
+            hash ^= key.charAt(ndx);
+            hash *= 0x100000001B3L;
+        }
+        return 0 != hash ? hash : 1;
+    }
+
+    private static byte[] createRecord(final String key, final BufferedImage image) throws IOException {
+        BufferedImage rgb = image;
+        if (image.getColorModel().hasAlpha()) {
+            rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g2d = rgb.createGraphics();
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        if (!ImageIO.write(rgb, "jpg", data)) {
+            throw new IOException("no jpeg writer");
+        }
+        byte[] keyBytes = key.getBytes(UTF8);
+        ByteBuffer record = ByteBuffer.allocate(8 + keyBytes.length + data.size());
+        record.putInt(keyBytes.length).put(keyBytes);
+        record.putInt(data.size()).put(data.toByteArray());
+        return record.array();
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An RGB image made of fixed size tiles. Only tiles that intersect one of the
+ * visible regions given at construction are ever allocated, and only once
+ * something is written to them; all other tiles read as black and share a
+ * single blank buffer. This keeps very large multi-head layouts out of one
+ * giant array, which the garbage collector would have to treat as a single
+ * humongous allocation.
+ * <p/>
+ * Pixels are written a row at a time through the
+ * {@link org.widgetrefinery.wallpaper.common.Resampler.RowSink} interface or
+ * drawn tile by tile through {@link #getTileImage(int, int)}. Since it is a
+ * {@link java.awt.image.RenderedImage}, it can be handed to
+ * {@link javax.imageio.ImageIO#write(java.awt.image.RenderedImage, String, java.io.File)}
+ * which requests it a strip at a time.
+ *
+ * @since 10/18/26 11:20 AM
+ */
+public class TiledCanvas implements RenderedImage, Resampler.RowSink {
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private static final int[] MASKS = new int[]{0xFF0000, 0xFF00, 0xFF};
+
+    private final int                         width;
+    private final int                         height;
+    private final int                         tileSize;
+    private final int                         numXTiles;
+    private final int                         numYTiles;
+    private final boolean[]                   visible;
+    private final AtomicReferenceArray<int[]> tiles;
+    private final int[]                       blank;
+    private final ColorModel                  colorModel;
+    private final SampleModel                 sampleModel;
+
+    /**
+     * Creates a new canvas using the default tile size.
+     *
+     * @param width          canvas width
+     * @param height         canvas height
+     * @param visibleRegions regions that will be written to; nothing outside them is stored
+     */
+    public TiledCanvas(final int width, final int height, final Collection<Rectangle> visibleRegions) {
+        this(width, height, visibleRegions, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a new canvas.
+     *
+     * @param width          canvas width
+     * @param height         canvas height
+     * @param visibleRegions regions that will be written to; nothing outside them is stored
+     * @param tileSize       width and height of each tile
+     */
+    public TiledCanvas(final int width, final int height, final Collection<Rectangle> visibleRegions, final int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.numXTiles = (width + tileSize - 1) / tileSize;
+        this.numYTiles = (height + tileSize - 1) / tileSize;
+        this.visible = new boolean[this.numXTiles * this.numYTiles];
+        for (Rectangle region : visibleRegions) {
+            Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+            if (clipped.isEmpty()) {
+                continue;
+            }
+            for (int ty = clipped.y / tileSize; ty <= (clipped.y + clipped.height - 1) / tileSize; ty++) {
+                for (int tx = clipped.x / tileSize; tx <= (clipped.x + clipped.width - 1) / tileSize; tx++) {
+                    this.visible[ty * this.numXTiles + tx] = true;
+                }
+            }
+        }
+        this.tiles = new AtomicReferenceArray<int[]>(this.visible.length);
+        this.blank = new int[tileSize * tileSize];
+        this.colorModel = new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]);
+        this.sampleModel = new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, tileSize, tileSize, MASKS);
+    }
+
+    /**
+     * Determines if the given tile intersects a visible region.
+     *
+     * @param tileX tile column
+     * @param tileY tile row
+     * @return true if the tile is stored
+     */
+    public boolean isVisible(final int tileX, final int tileY) {
+        return this.visible[tileY * this.numXTiles + tileX];
+    }
+
+    /**
+     * Returns the number of tiles that have been allocated so far.
+     *
+     * @return allocated tile count
+     */
+    public int getAllocatedTileCount() {
+        int result = 0;
+        for (int ndx = 0; ndx < this.tiles.length(); ndx++) {
+            if (null != this.tiles.get(ndx)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pixels of the given tile, allocating them if the tile is
+     * visible and has not been written to yet. Hidden tiles return null.
+     */
+    protected int[] getWritableTile(final int tileX, final int tileY) {
+        int ndx = tileY * this.numXTiles + tileX;
+        if (!this.visible[ndx]) {
+            return null;
+        }
+        int[] result = this.tiles.get(ndx);
+        if (null == result) {
+            this.tiles.compareAndSet(ndx, null, new int[this.tileSize * this.tileSize]);
+            result = this.tiles.get(ndx);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pixels of the given tile without allocating anything.
+     * Tiles that have not been written to return the shared blank tile.
+     */
+    protected int[] getReadableTile(final int tileX, final int tileY) {
+        int[] result = this.tiles.get(tileY * this.numXTiles + tileX);
+        return null != result ? result : this.blank;
+    }
+
+    @Override
+    public void setRow(final int x, final int y, final int[] pixels, final int offset, final int length) {
+        int tileY = y / this.tileSize;
+        int rowStart = (y - tileY * this.tileSize) * this.tileSize;
+        int end = x + length;
+        for (int pos = x; pos < end; ) {
+            int tileX = pos / this.tileSize;
+            int tileStart = tileX * this.tileSize;
+            int count = Math.min(end, tileStart + this.tileSize) - pos;
+            int[] tile = getWritableTile(tileX, tileY);
+            if (null != tile) {
+                System.arraycopy(pixels, offset + pos - x, tile, rowStart + pos - tileStart, count);
+            }
+            pos += count;
+        }
+    }
+
+    /**
+     * Copies one full row of the canvas into the given array as packed RGB
+     * integers.
+     *
+     * @param y   row to read
+     * @param row destination, at least as long as the canvas is wide
+     */
+    public void getRow(final int y, final int[] row) {
+        int tileY = y / this.tileSize;
+        int rowStart = (y - tileY * this.tileSize) * this.tileSize;
+        for (int tileX = 0; tileX < this.numXTiles; tileX++) {
+            int tileStart = tileX * this.tileSize;
+            int count = Math.min(this.width, tileStart + this.tileSize) - tileStart;
+            System.arraycopy(getReadableTile(tileX, tileY), rowStart, row, tileStart, count);
+        }
+    }
+
+    /**
+     * Returns a {@link java.awt.image.BufferedImage} sharing the pixels of the
+     * given tile, allocating the tile if needed, so that it can be drawn on
+     * with Java2D. Returns null for hidden tiles.
+     *
+     * @param tileX tile column
+     * @param tileY tile row
+     * @return tile image or null
+     */
+    public BufferedImage getTileImage(final int tileX, final int tileY) {
+        int[] tile = getWritableTile(tileX, tileY);
+        if (null == tile) {
+            return null;
+        }
+        WritableRaster raster = Raster.createWritableRaster(this.sampleModel, new DataBufferInt(tile, tile.length), new Point(0, 0));
+        return new BufferedImage(this.colorModel, raster, false, null);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return this.colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return this.sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return this.numXTiles;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return this.numYTiles;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return this.tileSize;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return this.tileSize;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(final int tileX, final int tileY) {
+        int[] tile = getReadableTile(tileX, tileY);
+        return Raster.createRaster(this.sampleModel, new DataBufferInt(tile, tile.length), new Point(tileX * this.tileSize, tileY * this.tileSize));
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, this.width, this.height));
+    }
+
+    @Override
+    public Raster getData(final Rectangle rect) {
+        WritableRaster raster = Raster.createWritableRaster(this.sampleModel.createCompatibleSampleModel(rect.width, rect.height), new Point(rect.x, rect.y));
+        return copyData(raster);
+    }
+
+    /**
+     * Copies the canvas into the given raster. Rasters using the same packed
+     * integer layout as the tiles are filled with array copies; any other
+     * raster is filled tile by tile through
+     * {@link java.awt.image.WritableRaster#setRect(java.awt.image.Raster)}.
+     *
+     * @param raster destination, or null to allocate one covering the whole canvas
+     * @return the destination raster
+     */
+    @Override
+    public WritableRaster copyData(final WritableRaster raster) {
+        WritableRaster result = raster;
+        if (null == result) {
+            result = this.colorModel.createCompatibleWritableRaster(this.width, this.height);
+        }
+        Rectangle rect = result.getBounds().intersection(new Rectangle(0, 0, this.width, this.height));
+        if (rect.isEmpty()) {
+            return result;
+        }
+        RasterUtil.RowLayout layout = isCompatible(result.getSampleModel()) ? RasterUtil.RowLayout.of(result) : null;
+        for (int tileY = rect.y / this.tileSize; tileY <= (rect.y + rect.height - 1) / this.tileSize; tileY++) {
+            for (int tileX = rect.x / this.tileSize; tileX <= (rect.x + rect.width - 1) / this.tileSize; tileX++) {
+                Rectangle tileRect = rect.intersection(new Rectangle(tileX * this.tileSize, tileY * this.tileSize, this.tileSize, this.tileSize));
+                if (null != layout) {
+                    int[] tile = getReadableTile(tileX, tileY);
+                    int[] dst = (int[]) layout.getArray();
+                    for (int y = tileRect.y; y < tileRect.y + tileRect.height; y++) {
+                        int srcPos = (y - tileY * this.tileSize) * this.tileSize + tileRect.x - tileX * this.tileSize;
+                        int dstPos = layout.getRowStart(y - result.getMinY()) + tileRect.x - result.getMinX();
+                        System.arraycopy(tile, srcPos, dst, dstPos, tileRect.width);
+                    }
+                } else {
+                    result.setRect(getTile(tileX, tileY).createChild(tileRect.x, tileRect.y, tileRect.width, tileRect.height, tileRect.x, tileRect.y, null));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean isCompatible(final SampleModel sampleModel) {
+        return sampleModel instanceof SinglePixelPackedSampleModel
+               && DataBufferInt.TYPE_INT == sampleModel.getDataType()
+               && Arrays.equals(MASKS, ((SinglePixelPackedSampleModel) sampleModel).getBitMasks());
+    }
+
+    /**
+     * Computes which parts of a canvas of the given size show up on the
+     * given monitors once the image has been translated, since a monitor left
+     * of or above the primary one wraps around to the other side of the
+     * canvas.
+     *
+     * @param width    canvas width
+     * @param height   canvas height
+     * @param monitors monitor rectangles in screen coordinates
+     * @param regions  receives the visible canvas regions
+     */
+    public static void addVisibleRegions(final int width, final int height, final List<Rectangle> monitors, final Collection<Rectangle> regions) {
+        Rectangle canvas = new Rectangle(0, 0, width, height);
+        for (Rectangle monitor : monitors) {
+            int x = ImageUtil.wrap(monitor.x, width);
+            int y = ImageUtil.wrap(monitor.y, height);
+            for (int dy = 0; dy >= -height; dy -= height) {
+                for (int dx = 0; dx >= -width; dx -= width) {
+                    Rectangle region = canvas.intersection(new Rectangle(x + dx, y + dy, monitor.width, monitor.height));
+                    if (!region.isEmpty()) {
+                        regions.add(region);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Frequency and cost aware eviction, after the TinyLFU admission policy. The
+ * policy estimates how often each key has been looked up recently with a
+ * count-min sketch: a few rows of small counters, each row indexed by a
+ * different hash of the key, where the estimate is the smallest of the key's
+ * counters. Once the sketch has seen ten times as many lookups as it has
+ * counters per row, every counter is halved so that old popularity fades.
+ * <p/>
+ * An entry's retention score is its estimated frequency times the cost of
+ * recreating it per byte it occupies. A new entry is only admitted if it
+ * scores higher than the entry it would push out, which keeps a single scan
+ * through a large directory from flushing the thumbnails the user keeps
+ * coming back to, and favours expensive decodes over cheap ones of the same
+ * size.
+ *
+ * @since 10/18/26 3:15 PM
+ */
+public class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private static final int   DEFAULT_WIDTH = 4096;
+    private static final int   MAX_COUNT     = 15;
+    private static final int   SAMPLE_FACTOR = 10;
+    private static final int[] SEEDS         = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final AtomicIntegerArray counters;
+    private final int                width;
+    private final int                sampleSize;
+    private final AtomicInteger      additions;
+
+    /**
+     * Creates a new instance sized for about 4096 entries.
+     */
+    public TinyLfuPolicy() {
+        this(DEFAULT_WIDTH);
+    }
+
+    /**
+     * Creates a new instance sized for about the given number of entries.
+     *
+     * @param expectedEntries expected number of entries in the cache
+     */
+    public TinyLfuPolicy(final int expectedEntries) {
+        this.width = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1);
+        this.counters = new AtomicIntegerArray(this.width * SEEDS.length);
+        this.sampleSize = this.width * SAMPLE_FACTOR;
+        this.additions = new AtomicInteger();
+    }
+
+    @Override
+    public void recordAccess(final K key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int ndx = getIndex(hash, row);
+            int count = this.counters.get(ndx);
+            while (count < MAX_COUNT && !this.counters.compareAndSet(ndx, count, count + 1)) {
+                count = this.counters.get(ndx);
+            }
+            added |= count < MAX_COUNT;
+        }
+        if (added && this.additions.incrementAndGet() >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimates how often the given key has been looked up recently.
+     *
+     * @param key key to look up
+     * @return estimated frequency, between 0 and 15
+     */
+    public int getFrequency(final K key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            frequency = Math.min(frequency, this.counters.get(getIndex(hash, row)));
+        }
+        return frequency;
+    }
+
+    @Override
+    public double getRetentionScore(final K key, final long weight, final long cost) {
+        return getFrequency(key) * (cost + 1.0) / Math.max(1, weight);
+    }
+
+    @Override
+    public boolean isAdmitted(final double candidateScore, final double victimScore) {
+        return candidateScore > victimScore;
+    }
+
+    /**
+     * Halves every counter. Lookups racing with the reset may be lost, which
+     * only makes the estimates slightly low.
+     */
+    protected void reset() {
+        this.additions.set(0);
+        for (int ndx = 0; ndx < this.counters.length(); ndx++) {
+            this.counters.set(ndx, this.counters.get(ndx) >>> 1);
+        }
+    }
+
+    protected int getIndex(final int hash, final int row) {
+        int rowHash = spread(hash * SEEDS[row]);
+        return row * this.width + (rowHash & (this.width - 1));
+    }
+
+    protected static int spread(final int hash) {
+        int result = hash ^ (hash >>> 16);
+        result *= 0x45D9F3B;
+        return result ^ (result >>> 16);
+    }
+}
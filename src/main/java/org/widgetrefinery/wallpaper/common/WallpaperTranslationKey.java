@@ -26,14 +26,19 @@ import org.widgetrefinery.util.lang.TranslationKey;
  * @since 4/14/12 11:07 AM
  */
 public enum WallpaperTranslationKey implements TranslationKey {
+    CL_OPT_BAND_BUDGET_DESC("cl.option.band_budget.description"),
+    CL_OPT_CACHE_SIZE_DESC("cl.option.cache_size.description"),
     CL_OPT_CONFIGURE_DESC("cl.option.configure.description"),
     CL_OPT_FORCE_DESC("cl.option.force.description"),
     CL_OPT_HELP_DESC("cl.option.help.description"),
     CL_OPT_INPUT_DESC("cl.option.input.description"),
     CL_OPT_LICENSE_ABSTRACT_DESC("cl.option.license_abstract.description"),
     CL_OPT_LICENSE_DESC("cl.option.license.description"),
+    CL_OPT_LAYOUTS_DESC("cl.option.layouts.description"),
     CL_OPT_OUTPUT_DESC("cl.option.output.description"),
     CL_OPT_REFRESH_DESC("cl.option.refresh.description"),
+    CL_OPT_RENDER_THREADS_DESC("cl.option.render_threads.description"),
+    CL_OPT_SCALE_DESC("cl.option.scale.description"),
     CL_OPT_VERSION_DESC("cl.option.version.description"),
     CL_OPT_VERSION_MSG("cl.option.version.msg"),
 
@@ -60,6 +65,11 @@ public enum WallpaperTranslationKey implements TranslationKey {
     PROCESS_ERROR_OUTPUT_EXISTS("process.error.output_exists"),
     PROCESS_ERROR_BAD_OUTPUT_NAME("process.error.bad_output_name", true),
     PROCESS_ERROR_SAME_INPUT_OUTPUT("process.error.same_input_output", true),
+    PROCESS_ERROR_BAD_SCALE_FILTER("process.error.bad_scale_filter"),
+    PROCESS_ERROR_BAD_BAND_BUDGET("process.error.bad_band_budget"),
+    PROCESS_ERROR_BAD_CACHE_SIZE("process.error.bad_cache_size"),
+    PROCESS_ERROR_BAD_RENDER_THREADS("process.error.bad_render_threads"),
+    PROCESS_ERROR_BAD_LAYOUT("process.error.bad_layout"),
     PROCESS_ERROR_OTHER("process.error.other"),
 
     CONFIG_GUI_WIDTH("config.gui.width");
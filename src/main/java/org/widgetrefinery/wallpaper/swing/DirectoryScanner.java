@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.swing;
+
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Lists a directory on a background thread. Entries are streamed from a
+ * {@link java.nio.file.DirectoryStream} rather than collected up front, and
+ * each accepted file is published as soon as it is found; SwingWorker
+ * coalesces them into batches for {@link #process(java.util.List)} on the
+ * event dispatch thread. Subclasses override process to consume the files.
+ * Cancelling the scanner stops the walk at the next entry.
+ *
+ * @since 10/18/26 10:20 PM
+ */
+public class DirectoryScanner extends SwingWorker<Integer, File> {
+    private final File       directory;
+    private final FileFilter filter;
+
+    public DirectoryScanner(final File directory, final FileFilter filter) {
+        this.directory = directory;
+        this.filter = filter;
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Walks the directory and publishes the accepted files.
+     *
+     * @return number of files published
+     * @throws java.io.IOException if the directory could not be read
+     */
+    @Override
+    protected Integer doInBackground() throws Exception {
+        int count = 0;
+        DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory.toPath());
+        try {
+            for (Path path : stream) {
+                if (isCancelled()) {
+                    break;
+                }
+                File file = path.toFile();
+                if (this.filter.accept(file)) {
+                    publish(file);
+                    count++;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return count;
+    }
+}
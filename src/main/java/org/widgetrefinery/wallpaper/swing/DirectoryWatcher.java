@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.swing;
+
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports files created, deleted or modified in one directory, so that a
+ * listing can be updated in place instead of being rebuilt. A
+ * {@link java.nio.file.WatchService} is polled on a daemon thread, and each
+ * batch of events is passed to the listener on the event dispatch thread.
+ * Created and modified files are only reported if the filter accepts them;
+ * deleted files are always reported since they can no longer be checked.
+ * <p/>
+ * Only one directory is watched at a time. Events still queued for the
+ * previous directory when {@link #watch(java.io.File)} switches are dropped.
+ * If the platform cannot watch the directory, nothing is reported and the
+ * listing simply goes stale as it did before.
+ *
+ * @since 10/18/26 11:05 PM
+ */
+public class DirectoryWatcher {
+    private static final Logger logger = Logger.getLogger(DirectoryWatcher.class.getName());
+
+    private final Listener     listener;
+    private final FileFilter   filter;
+    private final WatchService watchService;
+    private       WatchKey     key;
+    private       Thread       thread;
+
+    public DirectoryWatcher(final Listener listener, final FileFilter filter) {
+        this.listener = listener;
+        this.filter = filter;
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "directory watching is not available", e);
+        }
+        this.watchService = service;
+    }
+
+    /**
+     * Starts watching the given directory, in place of the one watched so far.
+     *
+     * @param directory directory to watch
+     */
+    public synchronized void watch(final File directory) {
+        if (null != this.key) {
+            this.key.cancel();
+            this.key = null;
+        }
+        if (null == this.watchService) {
+            return;
+        }
+        try {
+            this.key = directory.toPath().register(this.watchService,
+                                                   StandardWatchEventKinds.ENTRY_CREATE,
+                                                   StandardWatchEventKinds.ENTRY_DELETE,
+                                                   StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "unable to watch " + directory, e);
+            return;
+        } catch (ClosedWatchServiceException e) {
+            return;
+        }
+        if (null == this.thread) {
+            this.thread = new Thread("directory-watcher") {
+                @Override
+                public void run() {
+                    work();
+                }
+            };
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    protected synchronized boolean isCurrent(final WatchKey key) {
+        return key == this.key;
+    }
+
+    /**
+     * Stops watching and ends the background thread.
+     */
+    public synchronized void close() {
+        if (null != this.watchService) {
+            try {
+                this.watchService.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "failed to close the watch service", e);
+            }
+        }
+        this.key = null;
+        this.thread = null;
+    }
+
+    protected void work() {
+        try {
+            while (true) {
+                WatchKey watchKey = this.watchService.take();
+                if (isCurrent(watchKey)) {
+                    dispatch(watchKey, watchKey.pollEvents());
+                } else {
+                    watchKey.pollEvents();
+                }
+                watchKey.reset();
+            }
+        } catch (InterruptedException e) {
+            //exit
+        } catch (ClosedWatchServiceException e) {
+            //exit
+        }
+    }
+
+    /**
+     * Filters a batch of events and hands them to the listener on the event
+     * dispatch thread, unless the directory stopped being watched meanwhile.
+     * Several events for one file are folded into one: created then modified
+     * is still created, and deleted then created again is modified.
+     *
+     * @param watchKey key the events were queued for
+     * @param events   events to dispatch
+     */
+    protected void dispatch(final WatchKey watchKey, final List<WatchEvent<?>> events) {
+        Path directory = (Path) watchKey.watchable();
+        boolean overflow = false;
+        Map<File, WatchEvent.Kind<?>> changes = new LinkedHashMap<File, WatchEvent.Kind<?>>();
+        for (WatchEvent<?> event : events) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (StandardWatchEventKinds.OVERFLOW == kind) {
+                overflow = true;
+                continue;
+            }
+            File file = directory.resolve((Path) event.context()).toFile();
+            WatchEvent.Kind<?> previous = changes.get(file);
+            if (StandardWatchEventKinds.ENTRY_CREATE == kind && StandardWatchEventKinds.ENTRY_DELETE == previous) {
+                kind = StandardWatchEventKinds.ENTRY_MODIFY;
+            } else if (StandardWatchEventKinds.ENTRY_MODIFY == kind && StandardWatchEventKinds.ENTRY_CREATE == previous) {
+                kind = StandardWatchEventKinds.ENTRY_CREATE;
+            }
+            changes.put(file, kind);
+        }
+
+        final List<File> created = new ArrayList<File>();
+        final List<File> deleted = new ArrayList<File>();
+        final List<File> modified = new ArrayList<File>();
+        for (Map.Entry<File, WatchEvent.Kind<?>> entry : changes.entrySet()) {
+            File file = entry.getKey();
+            if (StandardWatchEventKinds.ENTRY_DELETE == entry.getValue()) {
+                deleted.add(file);
+            } else if (this.filter.accept(file)) {
+                if (StandardWatchEventKinds.ENTRY_CREATE == entry.getValue()) {
+                    created.add(file);
+                } else {
+                    modified.add(file);
+                }
+            }
+        }
+        if (!overflow && created.isEmpty() && deleted.isEmpty() && modified.isEmpty()) {
+            return;
+        }
+        final boolean isOverflow = overflow;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCurrent(watchKey)) {
+                    return;
+                }
+                if (isOverflow) {
+                    DirectoryWatcher.this.listener.overflow();
+                } else {
+                    DirectoryWatcher.this.listener.filesChanged(created, deleted, modified);
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives the changes to the watched directory, on the event dispatch
+     * thread.
+     */
+    public interface Listener {
+        /**
+         * Called with one batch of changes. A file appears in at most one of
+         * the lists.
+         *
+         * @param created  files created
+         * @param deleted  files deleted
+         * @param modified files modified
+         */
+        void filesChanged(List<File> created, List<File> deleted, List<File> modified);
+
+        /**
+         * Called when events were lost, after which the directory has to be
+         * listed again.
+         */
+        void overflow();
+    }
+}
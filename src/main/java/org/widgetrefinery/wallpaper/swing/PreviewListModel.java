@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.swing;
+
+import javax.swing.AbstractListModel;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * List model for the files of one directory, sized for folders with a
+ * hundred thousand images. Only the file names are kept, in a plain array,
+ * and the {@link java.io.File} objects are created when the list asks for
+ * an element, which with fixed cell sizes is only for the cells on screen.
+ * <p/>
+ * Files are appended in bulk with one event per batch. Once
+ * {@link #sort()} has been called, the model stays sorted: single files are
+ * inserted at their place with a binary search, and lookups use the same
+ * search. Until then lookups scan the names.
+ *
+ * @since 10/18/26 11:50 PM
+ */
+public class PreviewListModel extends AbstractListModel<File> {
+    private static final long               serialVersionUID = 1L;
+    private static final int                INITIAL_CAPACITY = 256;
+    private static final Comparator<String> NAME_ORDER       = new Comparator<String>() {
+        @Override
+        public int compare(final String name1, final String name2) {
+            int result = name1.toLowerCase().compareTo(name2.toLowerCase());
+            return 0 != result ? result : name1.compareTo(name2);
+        }
+    };
+
+    private File     directory;
+    private String[] names;
+    private int      size;
+    private boolean  sorted;
+
+    public PreviewListModel() {
+        this.names = new String[0];
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Empties the list and makes it hold files of the given directory.
+     *
+     * @param directory directory the files will belong to
+     */
+    public void reset(final File directory) {
+        int oldSize = this.size;
+        this.directory = directory;
+        this.names = new String[0];
+        this.size = 0;
+        this.sorted = false;
+        if (0 < oldSize) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public File getElementAt(final int index) {
+        if (index >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return new File(this.directory, this.names[index]);
+    }
+
+    public boolean isSorted() {
+        return this.sorted;
+    }
+
+    /**
+     * Appends files to the end of the list with a single event. Files from
+     * other directories are ignored. The list is no longer considered sorted
+     * afterwards.
+     *
+     * @param files files to append
+     */
+    public void addAll(final Collection<File> files) {
+        ensureCapacity(this.size + files.size());
+        int first = this.size;
+        for (File file : files) {
+            String name = getName(file);
+            if (null != name) {
+                this.names[this.size++] = name;
+            }
+        }
+        if (first < this.size) {
+            this.sorted = false;
+            fireIntervalAdded(this, first, this.size - 1);
+        }
+    }
+
+    /**
+     * Adds one file, at its sorted position if the list is sorted and at the
+     * end otherwise.
+     *
+     * @param file file to add
+     * @return index of the file, or -1 if it belongs to another directory
+     */
+    public int add(final File file) {
+        String name = getName(file);
+        if (null == name) {
+            return -1;
+        }
+        int index = this.size;
+        if (this.sorted) {
+            index = Arrays.binarySearch(this.names, 0, this.size, name, NAME_ORDER);
+            index = 0 > index ? -index - 1 : index;
+        }
+        ensureCapacity(this.size + 1);
+        System.arraycopy(this.names, index, this.names, index + 1, this.size - index);
+        this.names[index] = name;
+        this.size++;
+        fireIntervalAdded(this, index, index);
+        return index;
+    }
+
+    /**
+     * Removes a file.
+     *
+     * @param file file to remove
+     * @return true if the file was in the list
+     */
+    public boolean remove(final File file) {
+        int index = indexOf(file);
+        if (-1 == index) {
+            return false;
+        }
+        System.arraycopy(this.names, index + 1, this.names, index, this.size - index - 1);
+        this.names[--this.size] = null;
+        fireIntervalRemoved(this, index, index);
+        return true;
+    }
+
+    public boolean contains(final File file) {
+        return -1 < indexOf(file);
+    }
+
+    /**
+     * Finds a file, by binary search if the list is sorted.
+     *
+     * @param file file to look for
+     * @return index of the file or -1
+     */
+    public int indexOf(final File file) {
+        String name = getName(file);
+        if (null == name) {
+            return -1;
+        }
+        if (this.sorted) {
+            int index = Arrays.binarySearch(this.names, 0, this.size, name, NAME_ORDER);
+            return 0 > index ? -1 : index;
+        }
+        for (int index = 0; index < this.size; index++) {
+            if (name.equals(this.names[index])) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sorts the list by file name, ignoring case, with a single event. Each
+     * name is folded to lower case once up front rather than on every
+     * comparison.
+     */
+    public void sort() {
+        SortKey[] keys = new SortKey[this.size];
+        for (int ndx = 0; ndx < this.size; ndx++) {
+            keys[ndx] = new SortKey(this.names[ndx]);
+        }
+        Arrays.sort(keys);
+        for (int ndx = 0; ndx < this.size; ndx++) {
+            this.names[ndx] = keys[ndx].name;
+        }
+        this.sorted = true;
+        if (0 < this.size) {
+            fireContentsChanged(this, 0, this.size - 1);
+        }
+    }
+
+    /**
+     * Returns the name of the given file if it belongs to the directory of
+     * this list.
+     *
+     * @param file file to check
+     * @return file name or null
+     */
+    protected String getName(final File file) {
+        if (null == file || null == this.directory || !this.directory.equals(file.getParentFile())) {
+            return null;
+        }
+        return file.getName();
+    }
+
+    protected void ensureCapacity(final int capacity) {
+        if (capacity > this.names.length) {
+            int newCapacity = Math.max(INITIAL_CAPACITY, Math.max(capacity, this.names.length * 2));
+            this.names = Arrays.copyOf(this.names, newCapacity);
+        }
+    }
+
+    /**
+     * File name paired with its lower case form, ordered the same way as
+     * NAME_ORDER.
+     */
+    protected static class SortKey implements Comparable<SortKey> {
+        private final String name;
+        private final String folded;
+
+        public SortKey(final String name) {
+            this.name = name;
+            this.folded = name.toLowerCase();
+        }
+
+        @Override
+        public int compareTo(final SortKey other) {
+            int result = this.folded.compareTo(other.folded);
+            return 0 != result ? result : this.name.compareTo(other.name);
+        }
+    }
+}
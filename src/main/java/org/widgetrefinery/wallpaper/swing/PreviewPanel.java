@@ -41,25 +41,54 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.FileFilter;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @since 3/14/12 9:02 PM
  */
 public class PreviewPanel extends JScrollPane {
+    private static final Logger logger = Logger.getLogger(PreviewPanel.class.getName());
+
     private final Model                        model;
-    private final DefaultListModel<File>       listModel;
+    private final PreviewListModel             listModel;
     private final JList<File>                  listWidget;
     private final PreviewListSelectionListener listener;
+    private final ImageFileFilter              fileFilter;
+    private final DirectoryWatcher             watcher;
+    private final Set<File>                    watchedAdditions;
+    private       DirectoryScanner             scanner;
 
     public PreviewPanel(final EventBus eventBus, final Model model) {
         this.model = model;
 
         ImageUtil imageUtil = new ImageUtil(new DesktopInfo(200, -1));
         Rectangle bounds = imageUtil.getBounds();
-        final PreviewRenderQueue renderQueue = new PreviewRenderQueue(imageUtil);
+        final PreviewRenderQueue renderQueue = new PreviewRenderQueue(imageUtil, model.getCacheSize() * 1024L * 1024L, model.getRenderThreads());
         renderQueue.start();
 
-        this.listModel = new DefaultListModel<File>();
+        this.fileFilter = new ImageFileFilter();
+        this.watchedAdditions = new HashSet<File>();
+        this.watcher = new DirectoryWatcher(new DirectoryWatcher.Listener() {
+            @Override
+            public void filesChanged(final List<File> created, final List<File> deleted, final List<File> modified) {
+                applyChanges(renderQueue, created, deleted, modified);
+            }
+
+            @Override
+            public void overflow() {
+                refresh();
+            }
+        }, this.fileFilter);
+        this.listModel = new PreviewListModel();
         this.listWidget = new JList<File>(this.listModel);
         this.listWidget.setBackground(Color.BLACK);
         this.listWidget.setCellRenderer(new PreviewRenderer(renderQueue));
@@ -113,6 +142,7 @@ public class PreviewPanel extends JScrollPane {
 
         setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
         setViewportView(this.listWidget);
+        getViewport().addChangeListener(new PreviewPrefetcher(this.listWidget, renderQueue));
         refresh();
 
         eventBus.add(SetWorkingDirectoryEvent.class, new EventListener<SetWorkingDirectoryEvent>() {
@@ -148,26 +178,79 @@ public class PreviewPanel extends JScrollPane {
         });
     }
 
+    /**
+     * Clears the list and starts listing the working directory in the
+     * background. Files are added in batches as the scan finds them, so the
+     * panel stays responsive for large directories. A scan still running
+     * for a previous directory is cancelled, and batches it already
+     * published are dropped. Once the scan completes the list is sorted by
+     * name. The directory is watched from then on, see
+     * {@link #applyChanges(PreviewRenderQueue, java.util.List, java.util.List, java.util.List)}.
+     */
     protected void refresh() {
+        if (null != this.scanner) {
+            this.scanner.cancel(false);
+        }
         this.listener.setEnable(false);
         try {
-            this.listModel.clear();
-            File workingDirectory = this.model.getWorkingDirectory();
-            File[] children = workingDirectory.listFiles(new ImageFileFilter());
-            Integer selectedNdx = null;
-
-            if (null != children && 0 < children.length) {
-                this.listModel.ensureCapacity(children.length);
-                File inputFile = this.model.getInputFile();
-                for (File child : children) {
-                    this.listModel.addElement(child);
-                    if (child.equals(inputFile)) {
-                        selectedNdx = this.listModel.size() - 1;
+            this.listModel.reset(this.model.getWorkingDirectory());
+            this.watchedAdditions.clear();
+        } finally {
+            this.listener.setEnable(true);
+        }
+        this.watcher.watch(this.model.getWorkingDirectory());
+
+        final File inputFile = this.model.getInputFile();
+        final long start = System.currentTimeMillis();
+        this.scanner = new DirectoryScanner(this.model.getWorkingDirectory(), this.fileFilter) {
+            @Override
+            protected void process(final List<File> files) {
+                if (!isCancelled()) {
+                    addFiles(files, inputFile);
+                }
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                sortFiles();
+                try {
+                    int count = get();
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(MessageFormat.format("scan: {0} msec, files: {1}, directory: {2}", System.currentTimeMillis() - start, count, getDirectory()));
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    logger.log(Level.FINE, "failed to list " + getDirectory(), e.getCause());
                 }
             }
+        };
+        this.scanner.execute();
+    }
 
-            if (null != selectedNdx) {
+    /**
+     * Appends a batch of scanned files to the list. The input file is
+     * selected and scrolled to once it shows up.
+     *
+     * @param files     files to add
+     * @param inputFile file to select
+     */
+    protected void addFiles(final List<File> files, final File inputFile) {
+        this.listener.setEnable(false);
+        try {
+            List<File> batch = files;
+            if (!this.watchedAdditions.isEmpty()) {
+                //the watcher got to some of them first
+                batch = new ArrayList<File>(files);
+                batch.removeAll(this.watchedAdditions);
+            }
+            this.listModel.addAll(batch);
+
+            int selectedNdx = batch.contains(inputFile) ? this.listModel.indexOf(inputFile) : -1;
+            if (-1 < selectedNdx) {
                 this.listWidget.setSelectedIndex(selectedNdx);
                 this.listWidget.ensureIndexIsVisible(selectedNdx);
             }
@@ -176,6 +259,72 @@ public class PreviewPanel extends JScrollPane {
         }
     }
 
+    /**
+     * Sorts the list by name, keeping the selected file selected.
+     */
+    protected void sortFiles() {
+        this.listener.setEnable(false);
+        try {
+            File selected = this.listWidget.getSelectedValue();
+            this.listModel.sort();
+            int selectedNdx = this.listModel.indexOf(selected);
+            if (-1 < selectedNdx) {
+                this.listWidget.setSelectedIndex(selectedNdx);
+                this.listWidget.ensureIndexIsVisible(selectedNdx);
+            } else {
+                this.listWidget.clearSelection();
+            }
+        } finally {
+            this.listener.setEnable(true);
+        }
+    }
+
+    /**
+     * Updates the list in place for files created, deleted or modified in
+     * the working directory. Only the thumbnails of the affected files are
+     * dropped from the cache, and the selection is left alone unless the
+     * selected file is deleted.
+     *
+     * @param renderQueue render queue holding the thumbnails
+     * @param created     files created
+     * @param deleted     files deleted
+     * @param modified    files modified
+     */
+    protected void applyChanges(final PreviewRenderQueue renderQueue, final List<File> created, final List<File> deleted, final List<File> modified) {
+        this.listener.setEnable(false);
+        try {
+            for (File file : deleted) {
+                renderQueue.invalidate(file);
+                this.listModel.remove(file);
+                this.watchedAdditions.remove(file);
+            }
+            for (File file : modified) {
+                renderQueue.invalidate(file);
+                int ndx = this.listModel.indexOf(file);
+                if (-1 < ndx) {
+                    Rectangle cellBounds = this.listWidget.getCellBounds(ndx, ndx);
+                    if (null != cellBounds) {
+                        this.listWidget.repaint(cellBounds);
+                    }
+                } else {
+                    addWatchedFile(file);
+                }
+            }
+            for (File file : created) {
+                addWatchedFile(file);
+            }
+        } finally {
+            this.listener.setEnable(true);
+        }
+    }
+
+    protected void addWatchedFile(final File file) {
+        if (!this.listModel.contains(file)) {
+            this.listModel.add(file);
+            this.watchedAdditions.add(file);
+        }
+    }
+
     protected void resize(final PreviewRenderQueue renderQueue, final boolean fullReconfigure) {
         int width = getViewport().getWidth() / this.model.getThumbnailsPerRow();
         ImageUtil imageUtil = new ImageUtil(new DesktopInfo(width, -1));
@@ -212,19 +361,29 @@ public class PreviewPanel extends JScrollPane {
         }
     }
 
+    /**
+     * Accepts readable files whose suffix ImageIO has a reader for. The
+     * suffix lookup is cached, and checked before touching the file system,
+     * so most entries cost no more than a string comparison. The filter is
+     * safe to share between scanner threads.
+     */
     protected static class ImageFileFilter implements FileFilter {
+        private final ConcurrentMap<String, Boolean> readableSuffixes = new ConcurrentHashMap<String, Boolean>();
+
         @Override
         public boolean accept(final File file) {
-            boolean result = false;
-            if (file.isFile() && file.canRead()) {
-                String name = file.getName();
-                int ndx = name.lastIndexOf('.');
-                if (-1 < ndx) {
-                    String extension = name.substring(ndx + 1).toLowerCase();
-                    result = ImageIO.getImageReadersBySuffix(extension).hasNext();
-                }
+            String name = file.getName();
+            int ndx = name.lastIndexOf('.');
+            if (-1 == ndx) {
+                return false;
+            }
+            String extension = name.substring(ndx + 1).toLowerCase();
+            Boolean readable = this.readableSuffixes.get(extension);
+            if (null == readable) {
+                readable = ImageIO.getImageReadersBySuffix(extension).hasNext();
+                this.readableSuffixes.put(extension, readable);
             }
-            return result;
+            return readable && file.isFile() && file.canRead();
         }
     }
 
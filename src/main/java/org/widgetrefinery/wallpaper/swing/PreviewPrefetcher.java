@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.swing;
+
+import javax.swing.JList;
+import javax.swing.ListModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.File;
+
+/**
+ * Watches the preview list scroll and renders the thumbnails just past the
+ * edge of the view before they are painted. The prefetch area lies in the
+ * direction the list last scrolled and grows with the scroll speed, from a
+ * couple of rows when scrolling slowly up to roughly half a second's worth of
+ * scrolling. It is also capped so that the visible and prefetched thumbnails
+ * together use at most half of the render queue's cache budget.
+ * <p/>
+ * Prefetched cells are handed to the same scheduler as painted ones, which
+ * only serves them once every visible cell has been served, and drops them
+ * once they fall out of the prefetch area.
+ *
+ * @since 10/18/26 5:40 PM
+ */
+public class PreviewPrefetcher implements ChangeListener {
+    private static final int    MIN_ROWS           = 2;
+    private static final int    MAX_ROWS           = 12;
+    private static final double LOOKAHEAD_SECONDS  = 0.5;
+    private static final double VELOCITY_SMOOTHING = 0.5;
+    private static final int    BYTES_PER_PIXEL    = 4;
+    private static final int    BUDGET_DIVISOR     = 2;
+
+    private final JList<File>        list;
+    private final PreviewRenderQueue renderQueue;
+    private       int                lastY;
+    private       long               lastTime;
+    private       double             velocity;
+    private       int                direction;
+
+    public PreviewPrefetcher(final JList<File> list, final PreviewRenderQueue renderQueue) {
+        this.list = list;
+        this.renderQueue = renderQueue;
+        this.direction = 1;
+    }
+
+    @Override
+    public void stateChanged(final ChangeEvent e) {
+        Rectangle visibleRect = this.list.getVisibleRect();
+        updateVelocity(visibleRect.y, System.nanoTime());
+        Rectangle prefetchRect = getPrefetchRect(visibleRect);
+        this.renderQueue.setVisibleRect(visibleRect, prefetchRect);
+        if (null != prefetchRect) {
+            prefetch(prefetchRect);
+        }
+    }
+
+    /**
+     * Updates the smoothed scroll velocity and direction.
+     *
+     * @param y    top of the visible area, in pixels
+     * @param time current time, in nanoseconds
+     */
+    protected void updateVelocity(final int y, final long time) {
+        int dy = y - this.lastY;
+        if (0 < this.lastTime && time > this.lastTime) {
+            double instant = dy * 1000000000.0 / (time - this.lastTime);
+            this.velocity = VELOCITY_SMOOTHING * this.velocity + (1 - VELOCITY_SMOOTHING) * instant;
+        }
+        if (0 != dy) {
+            this.direction = 0 < dy ? 1 : -1;
+        }
+        this.lastY = y;
+        this.lastTime = time;
+    }
+
+    /**
+     * Computes the area of the list to prefetch, next to the visible area in
+     * the scroll direction.
+     *
+     * @param visibleRect visible area of the list
+     * @return area to prefetch, or null if nothing should be prefetched
+     */
+    protected Rectangle getPrefetchRect(final Rectangle visibleRect) {
+        int cellWidth = this.list.getFixedCellWidth();
+        int cellHeight = this.list.getFixedCellHeight();
+        if (0 >= cellWidth || 0 >= cellHeight || visibleRect.isEmpty()) {
+            return null;
+        }
+        int rows = MIN_ROWS + (int) (Math.abs(this.velocity) * LOOKAHEAD_SECONDS / cellHeight);
+        int columns = Math.max(1, this.list.getWidth() / cellWidth);
+        long cellBytes = (long) cellWidth * cellHeight * BYTES_PER_PIXEL;
+        long visibleRows = (visibleRect.height + cellHeight - 1) / cellHeight + 1;
+        long budgetRows = this.renderQueue.getCacheBudget() / BUDGET_DIVISOR / (cellBytes * columns) - visibleRows;
+        rows = (int) Math.min(Math.min(rows, MAX_ROWS), budgetRows);
+        if (0 >= rows) {
+            return null;
+        }
+        int height = rows * cellHeight;
+        int y = 0 < this.direction ? visibleRect.y + visibleRect.height : visibleRect.y - height;
+        return new Rectangle(0, y, this.list.getWidth(), height);
+    }
+
+    /**
+     * Requests every cell in the given area.
+     *
+     * @param prefetchRect area to prefetch
+     */
+    protected void prefetch(final Rectangle prefetchRect) {
+        int cellWidth = this.list.getFixedCellWidth();
+        int cellHeight = this.list.getFixedCellHeight();
+        ListModel<File> model = this.list.getModel();
+        Point point = new Point();
+        for (point.y = prefetchRect.y + cellHeight / 2; point.y < prefetchRect.y + prefetchRect.height; point.y += cellHeight) {
+            for (point.x = cellWidth / 2; point.x < prefetchRect.width; point.x += cellWidth) {
+                int index = this.list.locationToIndex(point);
+                if (0 > index) {
+                    return;
+                }
+                Rectangle cellBounds = this.list.getCellBounds(index, index);
+                if (null != cellBounds && cellBounds.contains(point)) {
+                    this.renderQueue.prefetch(new PreviewRenderRequest(this.list, index, model.getElementAt(index), cellBounds));
+                }
+            }
+        }
+    }
+}
@@ -19,8 +19,14 @@ package org.widgetrefinery.wallpaper.swing;
 
 import org.widgetrefinery.wallpaper.common.BasicCache;
 import org.widgetrefinery.wallpaper.common.ImageUtil;
+import org.widgetrefinery.wallpaper.common.MemoryPressureMonitor;
+import org.widgetrefinery.wallpaper.common.ResampleFilter;
+import org.widgetrefinery.wallpaper.common.Resampler;
+import org.widgetrefinery.wallpaper.common.ThumbnailStore;
+import org.widgetrefinery.wallpaper.common.TinyLfuPolicy;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
@@ -28,88 +34,357 @@ import java.awt.font.FontRenderContext;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Renders preview thumbnails in the background. Requests are made by the
+ * list cell renderer and handed to a pool of worker threads, which defaults
+ * to one worker per available processor, by a
+ * {@link org.widgetrefinery.wallpaper.swing.PreviewRenderScheduler} that
+ * serves the visible cells closest to the centre of the view first. The
+ * workers share the current {@link org.widgetrefinery.wallpaper.common.ImageUtil},
+ * which is safe as long as nothing reconfigures it after it is handed to
+ * {@link #setImageUtil(ImageUtil)}.
+ * <p/>
+ * Thumbnails are cached by file and size, so returning to a zoom level that
+ * is still cached needs no work at all. While a thumbnail is missing at the
+ * current size, a cached thumbnail of the same file at another size is shown
+ * scaled in its place, and if that thumbnail is larger the worker derives the
+ * new size from it instead of decoding the file again.
+ * <p/>
+ * In progressive mode, which is the default, a file with nothing else to
+ * show is first given a rough thumbnail from
+ * {@link org.widgetrefinery.wallpaper.common.ImageUtil#coarsePreviewImage(java.io.File, org.widgetrefinery.wallpaper.common.Cancellation)}
+ * if one can be had cheaply; other files go straight to the full preview.
+ * Painting a rough thumbnail requests a refinement, which the scheduler
+ * serves after the cells that still show placeholders.
+ *
  * @since 4/15/12 3:18 PM
  */
-public class PreviewRenderQueue extends Thread {
-    private static final Logger logger = Logger.getLogger(PreviewRenderQueue.class.getName());
+public class PreviewRenderQueue {
+    private static final Logger logger    = Logger.getLogger(PreviewRenderQueue.class.getName());
+    private static final int    MAX_SIZES = 16;
 
-    private final BlockingQueue<PreviewRenderRequest> queue;
-    private final Map<File, CacheRecord>              cache;
-    private       ImageUtil                           imageUtil;
+    private final    PreviewRenderScheduler            scheduler;
+    private final    BasicCache<CacheKey, CacheRecord> cache;
+    private final    ThumbnailStore                    thumbnailStore;
+    private final    List<Thread>                      workers;
+    private final    int                               workerCount;
+    private final    LinkedList<Dimension>             sizes;
+    private final    MemoryPressureMonitor.Listener    memoryListener;
+    private volatile ImageUtil                         imageUtil;
+    private volatile boolean                           progressive;
 
     public PreviewRenderQueue(final ImageUtil imageUtil) {
-        this.queue = new LinkedBlockingQueue<PreviewRenderRequest>();
-        this.cache = Collections.synchronizedMap(new BasicCache<File, CacheRecord>());
+        this(imageUtil, 0, 0);
+    }
+
+    /**
+     * Creates a new instance that keeps at most the given number of bytes of
+     * thumbnails in memory and renders them with the given number of workers.
+     *
+     * @param imageUtil   image utility for the current thumbnail size
+     * @param cacheBudget cache budget in bytes, or 0 for the default
+     * @param workerCount number of render workers, or 0 for one per processor
+     */
+    public PreviewRenderQueue(final ImageUtil imageUtil, final long cacheBudget, final int workerCount) {
+        this(imageUtil, new ThumbnailStore(ThumbnailStore.getDefaultDirectory()), cacheBudget, workerCount);
+    }
+
+    public PreviewRenderQueue(final ImageUtil imageUtil, final ThumbnailStore thumbnailStore, final long cacheBudget, final int workerCount) {
+        this.scheduler = new PreviewRenderScheduler();
+        this.workers = new ArrayList<Thread>();
+        this.workerCount = 0 < workerCount ? workerCount : Runtime.getRuntime().availableProcessors();
+        this.sizes = new LinkedList<Dimension>();
+        this.progressive = true;
+        this.cache = new BasicCache<CacheKey, CacheRecord>(cacheBudget, new TinyLfuPolicy<CacheKey>()) {
+            @Override
+            protected long sizeOf(final CacheRecord record) {
+                return sizeOf(record.getImage());
+            }
+        };
+        this.memoryListener = new MemoryPressureMonitor.Listener() {
+            @Override
+            public void memoryLow() {
+                BasicCache<CacheKey, CacheRecord> cache = PreviewRenderQueue.this.cache;
+                cache.trim(cache.getWeight() / 2);
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(MessageFormat.format("trimmed cache to {0} bytes; hits: {1}, misses: {2}, evictions: {3}",
+                                                     cache.getWeight(),
+                                                     cache.getHitCount(),
+                                                     cache.getMissCount(),
+                                                     cache.getEvictionCount()));
+                }
+            }
+        };
+        this.thumbnailStore = thumbnailStore;
         setImageUtil(imageUtil);
     }
 
     public BufferedImage render(final PreviewRenderRequest request) {
-        BufferedImage cachedImage;
-        CacheRecord record = this.cache.get(request.getFile());
+        Rectangle bounds = this.imageUtil.getBounds();
+        CacheRecord record = this.cache.get(new CacheKey(request.getFile(), bounds));
         if (null != record) {
-            cachedImage = record.getImage();
-            if (record.isStale(this.imageUtil)) {
-                enqueue(request);
+            if (record.isCoarse()) {
+                enqueue(request.createRefinement());
+            }
+            return record.getImage();
+        }
+        enqueue(request);
+        record = findOtherSize(request.getFile(), bounds);
+        if (null != record) {
+            return record.getImage();
+        }
+        return renderPlaceholderImage(bounds, request.getFile(), Color.WHITE, Color.BLACK);
+    }
+
+    /**
+     * Looks for a cached thumbnail of the given file at a size other than the
+     * given bounds. The smallest thumbnail at least as large as the bounds is
+     * preferred since it can be scaled down without loss, otherwise the
+     * largest smaller one is returned. This does not count as a use of the
+     * cached thumbnail.
+     *
+     * @param file   file to look for
+     * @param bounds size that is missing
+     * @return cached thumbnail at another size, or null
+     */
+    protected CacheRecord findOtherSize(final File file, final Rectangle bounds) {
+        CacheRecord larger = null;
+        CacheRecord smaller = null;
+        for (Dimension size : getSizes()) {
+            if (size.width == bounds.width && size.height == bounds.height) {
+                continue;
+            }
+            CacheRecord record = this.cache.peek(new CacheKey(file, size.width, size.height));
+            if (null == record) {
+                continue;
+            }
+            int width = record.getImage().getWidth();
+            if (width >= bounds.width) {
+                if (null == larger || width < larger.getImage().getWidth()) {
+                    larger = record;
+                }
+            } else if (null == smaller || width > smaller.getImage().getWidth()) {
+                smaller = record;
             }
-        } else {
-            cachedImage = renderPlaceholderImage(this.imageUtil.getBounds(), request.getFile(), Color.WHITE, Color.BLACK);
-            enqueue(request);
         }
-        return cachedImage;
+        return null != larger ? larger : smaller;
+    }
+
+    protected List<Dimension> getSizes() {
+        synchronized (this.sizes) {
+            return new ArrayList<Dimension>(this.sizes);
+        }
     }
 
     protected void enqueue(final PreviewRenderRequest request) {
-        try {
-            this.queue.put(request);
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "interrupted while trying to enqueue " + request, e);
+        this.scheduler.schedule(request);
+    }
+
+    /**
+     * Requests a thumbnail that is not on screen yet, unless it is already
+     * cached. The scheduler serves it after every visible cell.
+     *
+     * @param request request for a cell near the visible area
+     */
+    public void prefetch(final PreviewRenderRequest request) {
+        if (null == this.cache.peek(new CacheKey(request.getFile(), this.imageUtil.getBounds()))) {
+            enqueue(request);
         }
     }
 
+    /**
+     * Drops the cached thumbnails of a file at every zoom level, so that the
+     * next paint renders it again. The thumbnail store needs no help since
+     * it already ignores entries older than the file.
+     *
+     * @param file file that changed or was deleted
+     */
+    public void invalidate(final File file) {
+        for (Dimension size : getSizes()) {
+            this.cache.remove(new CacheKey(file, size.width, size.height));
+        }
+    }
+
+    public boolean isProgressive() {
+        return this.progressive;
+    }
+
+    /**
+     * Sets whether files with nothing else to show get a rough thumbnail
+     * before the full quality one.
+     *
+     * @param progressive true to render rough thumbnails first
+     */
+    public void setProgressive(final boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    public long getCacheBudget() {
+        return this.cache.getBudget();
+    }
+
+    /**
+     * Tells the scheduler which part of the list is visible, and which part
+     * is worth prefetching, in list coordinates. Call this on the event
+     * dispatch thread whenever the view scrolls or resizes.
+     *
+     * @param visibleRect  visible part of the list
+     * @param prefetchRect part of the list to prefetch, or null
+     */
+    public void setVisibleRect(final Rectangle visibleRect, final Rectangle prefetchRect) {
+        this.scheduler.setVisibleRect(visibleRect, prefetchRect);
+    }
+
+    /**
+     * Sets the image utility for the current thumbnail size. Thumbnails of
+     * the last few sizes stay cached so that switching back is instant.
+     *
+     * @param imageUtil image utility for the current thumbnail size
+     */
     public void setImageUtil(final ImageUtil imageUtil) {
+        Rectangle bounds = imageUtil.getBounds();
+        Dimension size = new Dimension(bounds.width, bounds.height);
+        synchronized (this.sizes) {
+            this.sizes.remove(size);
+            this.sizes.addFirst(size);
+            if (MAX_SIZES < this.sizes.size()) {
+                this.sizes.removeLast();
+            }
+        }
         this.imageUtil = imageUtil;
     }
 
-    @SuppressWarnings("InfiniteLoopStatement")
-    @Override
-    public void run() {
+    public int getWorkerCount() {
+        return this.workerCount;
+    }
+
+    /**
+     * Starts the render workers and begins trimming the cache when memory
+     * runs low. The workers are daemon threads, so they do not keep the
+     * application running.
+     */
+    public synchronized void start() {
+        if (!this.workers.isEmpty()) {
+            return;
+        }
+        MemoryPressureMonitor.getDefault().addListener(this.memoryListener);
+        for (int ndx = 0; ndx < this.workerCount; ndx++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "preview-render-" + ndx);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.NORM_PRIORITY - 1);
+            this.workers.add(worker);
+            worker.start();
+        }
+        logger.fine("started " + this.workerCount + " render workers");
+    }
+
+    /**
+     * Stops the render workers. Requests still in the queue are dropped, and
+     * the queue no longer listens for low memory, so that it can be garbage
+     * collected.
+     */
+    public synchronized void stop() {
+        MemoryPressureMonitor.getDefault().removeListener(this.memoryListener);
+        for (Thread worker : this.workers) {
+            worker.interrupt();
+        }
+        this.workers.clear();
+        this.scheduler.clear();
+    }
+
+    protected void work() {
         try {
-            while (true) {
-                render(this.queue.take(), this.imageUtil);
+            while (!Thread.currentThread().isInterrupted()) {
+                PreviewRenderRequest request = this.scheduler.take();
+                try {
+                    render(request, this.imageUtil);
+                } finally {
+                    this.scheduler.done(request.getFile());
+                }
             }
         } catch (InterruptedException e) {
-            logger.log(Level.WARNING, "interrupted while waiting on queue", e);
+            logger.log(Level.FINE, "render worker stopped", e);
         }
     }
 
     protected void render(final PreviewRenderRequest request, final ImageUtil imageUtil) {
         File inputFile = request.getFile();
-        CacheRecord record = this.cache.get(inputFile);
-        if (request.isStillValid() && (null == record || record.isStale(imageUtil))) {
-            BufferedImage image = null;
-            if (null == record || !record.isPlaceholder()) {
-                try {
-                    image = imageUtil.previewImage(inputFile);
+        Rectangle bounds = imageUtil.getBounds();
+        CacheKey key = new CacheKey(inputFile, bounds);
+        CacheRecord record = this.cache.get(key);
+        if (null != record && !record.isCoarse()) {
+            return;
+        }
+        BufferedImage image = null;
+        long start = System.nanoTime();
+        CacheRecord other = null == record ? findOtherSize(inputFile, bounds) : null;
+        if (null != other && other.isPlaceholder()) {
+            //the file already failed to render at another size
+            logger.fine("skipping image that failed to render " + inputFile);
+        } else if (null != other && !other.isCoarse() && other.getImage().getWidth() >= bounds.width) {
+            image = new Resampler(ResampleFilter.BICUBIC).resize(other.getImage(), bounds.width, bounds.height);
+        } else {
+            try {
+                image = this.thumbnailStore.get(inputFile, imageUtil);
+                if (null == image && null == record && null == other && this.progressive) {
+                    BufferedImage coarse = imageUtil.coarsePreviewImage(inputFile, request.getCancellation());
+                    if (null != coarse) {
+                        store(request, key, new CacheRecord(coarse, false, true), System.nanoTime() - start);
+                        return;
+                    }
+                }
+                if (null == image) {
+                    image = imageUtil.previewImage(inputFile, request.getCancellation());
                     if (null == image) {
                         logger.log(Level.WARNING, "failed to render image " + inputFile);
+                    } else {
+                        this.thumbnailStore.put(inputFile, imageUtil, image);
                     }
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "failed to render image " + inputFile, e);
                 }
+            } catch (CancellationException e) {
+                //the cell scrolled out of view; it is requested again if it comes back
+                logger.fine("cancelled rendering " + inputFile);
+                return;
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "failed to render image " + inputFile, e);
             }
-            boolean isPlaceholder = null == image;
-            if (isPlaceholder) {
-                image = renderPlaceholderImage(imageUtil.getBounds(), inputFile, Color.BLACK, Color.RED);
-            }
-            this.cache.put(inputFile, new CacheRecord(imageUtil, image, isPlaceholder));
+        }
+        boolean isPlaceholder = null == image;
+        if (isPlaceholder) {
+            image = renderPlaceholderImage(bounds, inputFile, Color.BLACK, Color.RED);
+        }
+        store(request, key, new CacheRecord(image, isPlaceholder, false), System.nanoTime() - start);
+    }
+
+    /**
+     * Caches a rendered thumbnail and repaints its cell. Only prefetched
+     * thumbnails are subject to the cache's admission policy: a cell on
+     * screen, or one being refined, would miss again on its next paint and
+     * be rendered over and over if its thumbnail were refused. The cell is
+     * not repainted if the thumbnail was refused anyway.
+     *
+     * @param request request the thumbnail was rendered for
+     * @param key     cache key
+     * @param record  thumbnail to cache
+     * @param cost    time taken to render the thumbnail, in nanoseconds
+     */
+    protected void store(final PreviewRenderRequest request, final CacheKey key, final CacheRecord record, final long cost) {
+        boolean admission = !request.isRefinement() && !this.scheduler.isVisible(request);
+        this.cache.put(key, record, cost, admission);
+        if (record == this.cache.peek(key)) {
             request.done();
         }
     }
@@ -139,19 +414,66 @@ public class PreviewRenderQueue extends Thread {
         return image;
     }
 
+    /**
+     * Identifies a cached thumbnail by file and size.
+     */
+    protected static class CacheKey {
+        private final File file;
+        private final int  width;
+        private final int  height;
+
+        public CacheKey(final File file, final Rectangle bounds) {
+            this(file, bounds.width, bounds.height);
+        }
+
+        public CacheKey(final File file, final int width, final int height) {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return this.width == other.width && this.height == other.height && this.file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.file.hashCode() * 31 + this.width) * 31 + this.height;
+        }
+
+        @Override
+        public String toString() {
+            return this.file + "@" + this.width + "x" + this.height;
+        }
+    }
+
     protected static class CacheRecord {
-        private final ImageUtil     imageUtil;
         private final BufferedImage image;
         private final boolean       isPlaceholder;
+        private final boolean       isCoarse;
 
-        public CacheRecord(final ImageUtil imageUtil, final BufferedImage image, final boolean isPlaceholder) {
-            this.imageUtil = imageUtil;
+        public CacheRecord(final BufferedImage image, final boolean isPlaceholder, final boolean isCoarse) {
             this.image = image;
             this.isPlaceholder = isPlaceholder;
+            this.isCoarse = isCoarse;
         }
 
-        public boolean isStale(final ImageUtil imageUtil) {
-            return imageUtil != this.imageUtil;
+        /**
+         * Checks if the image is a rough thumbnail still waiting to be
+         * replaced by a full quality one.
+         *
+         * @return true if the image is rough
+         */
+        public boolean isCoarse() {
+            return this.isCoarse;
         }
 
         public BufferedImage getImage() {
@@ -17,26 +17,95 @@
 
 package org.widgetrefinery.wallpaper.swing;
 
+import org.widgetrefinery.wallpaper.common.Cancellation;
+
 import javax.swing.JList;
 import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
 import java.io.File;
 
 /**
  * @since 4/15/12 3:22 PM
  */
 public class PreviewRenderRequest {
-    private final JList list;
-    private final int   index;
-    private final File  file;
+    private final JList        list;
+    private final int          index;
+    private final File         file;
+    private final Rectangle    cellBounds;
+    private final Cancellation cancellation;
+    private final boolean      refinement;
 
+    /**
+     * Creates a new request for the given cell. This must be called on the
+     * event dispatch thread since it looks up where the cell is.
+     *
+     * @param list  list being painted
+     * @param index index of the cell
+     * @param file  file shown in the cell
+     */
     public PreviewRenderRequest(final JList list, final int index, final File file) {
+        this(list, index, file, list.getCellBounds(index, index));
+    }
+
+    public PreviewRenderRequest(final JList list, final int index, final File file, final Rectangle cellBounds) {
+        this(list, index, file, cellBounds, false);
+    }
+
+    protected PreviewRenderRequest(final JList list, final int index, final File file, final Rectangle cellBounds, final boolean refinement) {
         this.list = list;
         this.index = index;
         this.file = file;
+        this.cellBounds = null != cellBounds ? cellBounds : new Rectangle();
+        this.cancellation = new Cancellation();
+        this.refinement = refinement;
+    }
+
+    /**
+     * Creates a request to replace the rough thumbnail of the same cell with
+     * a full quality one. The scheduler serves refinements after every
+     * visible cell that has nothing to show yet.
+     *
+     * @return refinement request for the same cell
+     */
+    public PreviewRenderRequest createRefinement() {
+        return new PreviewRenderRequest(this.list, this.index, this.file, this.cellBounds, true);
+    }
+
+    public boolean isRefinement() {
+        return this.refinement;
+    }
+
+    /**
+     * Returns the cancellation the decode for this request honours. The
+     * scheduler triggers it when the cell scrolls out of view.
+     *
+     * @return cancellation for this request
+     */
+    public Cancellation getCancellation() {
+        return this.cancellation;
+    }
+
+    /**
+     * Checks if the cell overlaps the given visible part of the list.
+     *
+     * @param visibleRect visible part of the list
+     * @return true if the cell is at least partly visible
+     */
+    public boolean isVisible(final Rectangle visibleRect) {
+        return visibleRect.intersects(this.cellBounds);
     }
 
-    public boolean isStillValid() {
-        return this.list.getFirstVisibleIndex() <= this.index && this.list.getLastVisibleIndex() >= this.index;
+    /**
+     * Computes the squared distance between the centre of the cell and the
+     * centre of the given visible part of the list.
+     *
+     * @param visibleRect visible part of the list
+     * @return squared distance in pixels
+     */
+    public long getDistance(final Rectangle visibleRect) {
+        long dx = (long) this.cellBounds.getCenterX() - (long) visibleRect.getCenterX();
+        long dy = (long) this.cellBounds.getCenterY() - (long) visibleRect.getCenterY();
+        return dx * dx + dy * dy;
     }
 
     public JList getList() {
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.swing;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides which thumbnail the render workers work on next. Cells may be
+ * painted many times before their thumbnail is ready, so requests are keyed
+ * by file: a file has at most one pending request, and it is not handed out
+ * again while a worker is still rendering it. Workers are given the pending
+ * cell closest to the centre of the visible part of the list, and requests
+ * for cells that have been scrolled out of view are dropped; they are
+ * requested again if the cell is painted again. Requests already being
+ * rendered for cells that scroll out of view are cancelled, which aborts
+ * their decode and frees the worker for visible cells.
+ * <p/>
+ * Visible cells that have nothing to show yet come first, then visible cells
+ * waiting for their rough thumbnail to be refined. An optional prefetch area
+ * marks cells that are not visible yet but are about to be. Requests in it
+ * are kept, and served only once no visible cell is waiting.
+ *
+ * @since 10/18/26 4:05 PM
+ */
+public class PreviewRenderScheduler {
+    private final Map<File, PreviewRenderRequest> pending;
+    private final Map<File, PreviewRenderRequest> inFlight;
+    private       Rectangle                       visibleRect;
+    private       Rectangle                       prefetchRect;
+
+    public PreviewRenderScheduler() {
+        this.pending = new LinkedHashMap<File, PreviewRenderRequest>();
+        this.inFlight = new HashMap<File, PreviewRenderRequest>();
+    }
+
+    /**
+     * Adds a request, replacing any pending request for the same file.
+     *
+     * @param request request to add
+     */
+    public synchronized void schedule(final PreviewRenderRequest request) {
+        this.pending.put(request.getFile(), request);
+        notifyAll();
+    }
+
+    /**
+     * Waits for the most urgent request and marks its file as in flight. The
+     * caller must pass the file to {@link #done(java.io.File)} when finished.
+     *
+     * @return next request to render
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized PreviewRenderRequest take() throws InterruptedException {
+        while (true) {
+            PreviewRenderRequest next = null;
+            int nextTier = Integer.MAX_VALUE;
+            long nextDistance = Long.MAX_VALUE;
+            for (Iterator<PreviewRenderRequest> itr = this.pending.values().iterator(); itr.hasNext(); ) {
+                PreviewRenderRequest request = itr.next();
+                boolean visible = null == this.visibleRect || request.isVisible(this.visibleRect);
+                if (!visible && !isPrefetched(request)) {
+                    itr.remove();
+                } else if (!this.inFlight.containsKey(request.getFile())) {
+                    int tier = visible ? (request.isRefinement() ? 1 : 0) : 2;
+                    long distance = null != this.visibleRect ? request.getDistance(this.visibleRect) : 0;
+                    if (tier < nextTier || (tier == nextTier && distance < nextDistance)) {
+                        next = request;
+                        nextTier = tier;
+                        nextDistance = distance;
+                    }
+                }
+            }
+            if (null != next) {
+                this.pending.remove(next.getFile());
+                this.inFlight.put(next.getFile(), next);
+                return next;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Marks the given file as no longer in flight, which allows a request for
+     * it that arrived in the meantime to be handed out.
+     *
+     * @param file file that was rendered
+     */
+    public synchronized void done(final File file) {
+        this.inFlight.remove(file);
+        notifyAll();
+    }
+
+    /**
+     * Sets the part of the list that is currently visible, in list
+     * coordinates, and cancels the requests being rendered for cells that are
+     * no longer visible. Until this is called every request counts as visible
+     * and requests are handed out in the order they arrived.
+     *
+     * @param visibleRect visible part of the list
+     */
+    public void setVisibleRect(final Rectangle visibleRect) {
+        setVisibleRect(visibleRect, null);
+    }
+
+    /**
+     * Sets the parts of the list that are currently visible and that are
+     * worth prefetching, in list coordinates, and cancels the requests being
+     * rendered for cells that are in neither.
+     *
+     * @param visibleRect  visible part of the list
+     * @param prefetchRect part of the list to prefetch, or null
+     */
+    public synchronized void setVisibleRect(final Rectangle visibleRect, final Rectangle prefetchRect) {
+        this.visibleRect = new Rectangle(visibleRect);
+        this.prefetchRect = null != prefetchRect ? new Rectangle(prefetchRect) : null;
+        for (PreviewRenderRequest request : this.inFlight.values()) {
+            if (!request.isVisible(this.visibleRect) && !isPrefetched(request)) {
+                request.getCancellation().cancel();
+            }
+        }
+    }
+
+    private boolean isPrefetched(final PreviewRenderRequest request) {
+        return null != this.prefetchRect && request.isVisible(this.prefetchRect);
+    }
+
+    /**
+     * Checks if a request is for a cell in the visible area, as opposed to
+     * one that is only prefetched. Every cell counts as visible until a
+     * visible area has been set.
+     *
+     * @param request request to check
+     * @return true if the cell is on screen
+     */
+    public synchronized boolean isVisible(final PreviewRenderRequest request) {
+        return null == this.visibleRect || request.isVisible(this.visibleRect);
+    }
+
+    public synchronized int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * Drops every pending request.
+     */
+    public synchronized void clear() {
+        this.pending.clear();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper;
+
+import junit.framework.TestCase;
+import org.widgetrefinery.util.BadUserInputException;
+import org.widgetrefinery.util.event.EventBus;
+import org.widgetrefinery.wallpaper.common.DesktopInfo;
+import org.widgetrefinery.wallpaper.common.Model;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.Map;
+
+/**
+ * @since 10/18/26 11:58 PM
+ */
+public class TestCli extends TestCase {
+    public void testAddLayouts() {
+        Cli cli = new Cli();
+        Model model = new Model(new EventBus());
+        cli.addLayouts(model, "docked.bmp@100x50+0+0; projector.png@20x10+0+0,20x10+20+0");
+        Map<File, DesktopInfo> layouts = model.getLayouts();
+        assertEquals(2, layouts.size());
+        assertEquals(new Rectangle(0, 0, 100, 50), layouts.get(new File("docked.bmp")).getBounds());
+        assertEquals(new Rectangle(0, 0, 40, 10), layouts.get(new File("projector.png")).getBounds());
+
+        for (String value : new String[]{"docked.bmp", "@100x50+0+0", "docked.bmp@100x50+0+0;projector.png"}) {
+            try {
+                cli.addLayouts(new Model(new EventBus()), value);
+                fail(value);
+            } catch (BadUserInputException e) {
+                //expected
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Base class for tests that work on files. Each test gets an empty
+ * directory of its own, which is deleted along with everything in it when
+ * the test is over.
+ *
+ * @since 10/18/26 11:50 PM
+ */
+public abstract class TempDirectoryTestCase extends TestCase {
+    protected File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = File.createTempFile("wallpaper", "");
+        assertTrue(this.directory.delete());
+        assertTrue(this.directory.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(this.directory);
+    }
+
+    protected static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
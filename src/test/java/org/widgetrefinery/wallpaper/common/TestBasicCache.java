@@ -19,69 +19,186 @@ package org.widgetrefinery.wallpaper.common;
 
 import junit.framework.TestCase;
 
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * @since 4/20/12 12:13 AM
  */
 public class TestBasicCache extends TestCase {
     public void testCache() {
         //warm up the cache
-        long twoHundredMegabytes = 200 * 1024 * 1024;
-        StubCache<Integer, String> cache = new StubCache<Integer, String>(twoHundredMegabytes, twoHundredMegabytes);
-        cache.put(3, "a");
-        cache.put(2, "b");
-        cache.put(1, "c");
+        StubCache<Integer, String> cache = new StubCache<Integer, String>(10);
+        cache.put(3, "aaaa");
+        cache.put(2, "bbb");
+        cache.put(1, "cc");
         assertEquals(3, cache.size());
+        assertEquals(9, cache.getWeight());
 
-        //drop free memory below fixed threshold; the least recently used entry should be dropped by the call to put()
-        cache.freeMemory = 10 * 1024 * 1024;
+        //touch the eldest entry, then exceed the budget; the least recently used entry should be dropped by put()
+        assertEquals("aaaa", cache.get(3));
         cache.put(4, "d");
-        assertEquals(3, cache.size());
-        assertEquals(true, cache.containsKey(1));
-        assertEquals(true, cache.containsKey(2));
-        assertEquals(true, cache.containsKey(4));
+        assertEquals(10, cache.getWeight());
+        cache.put(5, "ee");
+        assertEquals(4, cache.size());
+        assertEquals(9, cache.getWeight());
+        assertEquals(false, cache.containsKey(2));
+        assertEquals(true, cache.containsKey(3));
 
-        //increase max memory so that percentage free drops below threshold; the LRU entry should be dropped by the call to put()
-        cache.maxMemory = 1001 * 1024 * 1024;
-        cache.put(5, "e");
+        //replacing and removing values adjusts the weight
+        cache.put(4, "ddd");
+        assertEquals(9, cache.getWeight());
         assertEquals(3, cache.size());
-        assertEquals(true, cache.containsKey(1));
-        assertEquals(true, cache.containsKey(4));
-        assertEquals(true, cache.containsKey(5));
-
-        //decrease free memory and increase max memory; the LRU entry should be dropped
-        cache.freeMemory = 10 * 1024 * 1024;
-        cache.maxMemory = 1001 * 1024 * 1024;
-        cache.get(4);
+        assertEquals(false, cache.containsKey(1));
+        assertEquals("aaaa", cache.remove(3));
+        assertEquals(5, cache.getWeight());
+        long evictions = cache.getEvictionCount();
+
+        //a value heavier than the whole budget is not kept, and does not push anything else out
+        cache.put(6, "ffffffffffff");
+        assertEquals(false, cache.containsKey(6));
+        assertEquals(5, cache.getWeight());
         assertEquals(2, cache.size());
-        assertEquals(true, cache.containsKey(4));
-        assertEquals(true, cache.containsKey(5));
+        assertEquals(0, cache.getEvictionCount() - evictions);
+        assertEquals("ee", cache.put(5, "eeeeeeeeeeee"));
+        assertEquals(false, cache.containsKey(5));
+        assertEquals(3, cache.getWeight());
+        assertEquals(1, cache.size());
+
+        //trimming below the budget drops the least recently used entries
+        cache.put(7, "g");
+        cache.put(8, "hh");
+        cache.put(9, "iii");
+        cache.trim(4);
+        assertEquals(3, cache.getWeight());
+        assertEquals(true, cache.containsKey(9));
+
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+    }
+
+    public void testImageSize() {
+        assertEquals(10 * 20 * 4, BasicCache.sizeOf(new BufferedImage(10, 20, BufferedImage.TYPE_INT_RGB)));
+        assertEquals(10 * 20 * 3, BasicCache.sizeOf(new BufferedImage(10, 20, BufferedImage.TYPE_3BYTE_BGR)));
+        assertEquals(10 * 20 * 2, BasicCache.sizeOf(new BufferedImage(10, 20, BufferedImage.TYPE_USHORT_GRAY)));
+
+        BasicCache<Integer, BufferedImage> cache = new BasicCache<Integer, BufferedImage>(500);
+        cache.put(1, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+        cache.put(2, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+        assertEquals(1, cache.size());
+        assertEquals(true, cache.containsKey(2));
+        assertEquals(400, cache.getWeight());
+        assertTrue(0 < new BasicCache<Integer, String>().getBudget());
+    }
+
+    public void testFrequencyAdmission() {
+        StubCache<String, String> cache = new StubCache<String, String>(3, new TinyLfuPolicy<String>());
+        for (String key : new String[]{"a", "b", "c"}) {
+            for (int count = 0; count < 5; count++) {
+                cache.get(key);
+            }
+            cache.put(key, key);
+        }
+        assertEquals(15, cache.getMissCount());
+
+        //a scan of keys seen only once does not flush the popular ones
+        for (int ndx = 0; ndx < 100; ndx++) {
+            String key = "scan" + ndx;
+            assertNull(cache.get(key));
+            cache.put(key, String.valueOf(ndx % 10));
+        }
+        assertEquals(true, cache.containsKey("a"));
+        assertEquals(true, cache.containsKey("b"));
+        assertEquals(true, cache.containsKey("c"));
+        assertEquals(100, cache.getEvictionCount());
+
+        //a key that becomes popular is admitted, displacing the least valuable entry
+        for (int count = 0; count < 10; count++) {
+            cache.get("d");
+        }
+        cache.get("b");
+        cache.get("c");
+        cache.put("d", "d");
+        assertEquals(true, cache.containsKey("d"));
+        assertEquals(false, cache.containsKey("a"));
+        assertEquals(3, cache.getWeight());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    public void testCostAwareEviction() {
+        StubCache<String, String> cache = new StubCache<String, String>(4, new TinyLfuPolicy<String>());
+        cache.get("cheap");
+        cache.put("cheap", "aa", 100);
+        cache.get("costly");
+        cache.put("costly", "bb", 1000000);
+
+        //the cheap entry is used more recently and more often, but it costs far less to recreate
+        cache.get("cheap");
+        cache.get("new");
+        cache.get("new");
+        cache.put("new", "cc", 1000000);
+        assertEquals(false, cache.containsKey("cheap"));
+        assertEquals(true, cache.containsKey("costly"));
+        assertEquals(true, cache.containsKey("new"));
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final StubCache<Integer, String> cache = new StubCache<Integer, String>(1000);
+        final CountDownLatch done = new CountDownLatch(4);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int ndx = 0; ndx < 4; ndx++) {
+            final int seed = ndx;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int count = 0; count < 20000; count++) {
+                            int key = (count * 31 + seed) % 500;
+                            String value = cache.get(key);
+                            if (null == value) {
+                                cache.put(key, "value" + key);
+                            } else if (!value.equals("value" + key)) {
+                                throw new AssertionError(key + " = " + value);
+                            }
+                            if (0 == count % 1000) {
+                                cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertNull(failure.get());
+        assertTrue(cache.getWeight() <= 1000);
+
+        //the tracked weight matches the entries that are left
+        long weight = 0;
+        for (int key = 0; key < 500; key++) {
+            if (cache.containsKey(key)) {
+                weight += ("value" + key).length();
+            }
+        }
+        assertEquals(weight, cache.getWeight());
     }
 
     protected static class StubCache<K, V> extends BasicCache<K, V> {
-        private final long defaultFreeMemory;
-        private final long defaultMaxMemory;
-        private       long freeMemory;
-        private       long maxMemory;
-
-        public StubCache(final long defaultFreeMemory, final long defaultMaxMemory) {
-            this.defaultFreeMemory = defaultFreeMemory;
-            this.defaultMaxMemory = defaultMaxMemory;
-            this.freeMemory = defaultFreeMemory;
-            this.maxMemory = defaultMaxMemory;
+        public StubCache(final long budget) {
+            super(budget);
         }
 
-        @Override
-        protected long getFreeMemory() {
-            long freeMemory = this.freeMemory;
-            this.freeMemory = this.defaultFreeMemory;
-            return freeMemory;
+        public StubCache(final long budget, final EvictionPolicy<K> policy) {
+            super(budget, policy);
         }
 
         @Override
-        protected long getMaxMemory() {
-            long maxMemory = this.maxMemory;
-            this.maxMemory = this.defaultMaxMemory;
-            return maxMemory;
+        protected long sizeOf(final V value) {
+            return value.toString().length();
         }
     }
 }
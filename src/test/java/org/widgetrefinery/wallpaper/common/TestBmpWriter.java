@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * @since 10/18/26 11:02 AM
+ */
+public class TestBmpWriter extends TestCase {
+    public void testWrite() throws Exception {
+        int[] types = new int[]{BufferedImage.TYPE_3BYTE_BGR,
+                                BufferedImage.TYPE_INT_RGB,
+                                BufferedImage.TYPE_INT_ARGB,
+                                BufferedImage.TYPE_USHORT_565_RGB};
+        for (int type : types) {
+            //odd width so that rows need padding
+            BufferedImage input = new BufferedImage(7, 5, type);
+            for (int y = 0; y < input.getHeight(); y++) {
+                for (int x = 0; x < input.getWidth(); x++) {
+                    input.setRGB(x, y, 0xFF000000 | (x * 36) << 16 | (y * 60) << 8 | (x + y) * 20);
+                }
+            }
+            File file = File.createTempFile("wallpaper", ".bmp");
+            try {
+                new BmpWriter().write(input, file);
+                assertEquals(54 + BmpWriter.getRowSize(7) * 5, file.length());
+                BufferedImage output = ImageIO.read(file);
+                assertEquals(7, output.getWidth());
+                assertEquals(5, output.getHeight());
+                for (int y = 0; y < input.getHeight(); y++) {
+                    for (int x = 0; x < input.getWidth(); x++) {
+                        assertEquals(type + ": " + x + ", " + y, 0xFFFFFF & input.getRGB(x, y), 0xFFFFFF & output.getRGB(x, y));
+                    }
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+}
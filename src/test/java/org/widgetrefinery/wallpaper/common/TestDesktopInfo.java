@@ -18,6 +18,7 @@
 package org.widgetrefinery.wallpaper.common;
 
 import junit.framework.TestCase;
+import org.widgetrefinery.util.BadUserInputException;
 
 import java.awt.Rectangle;
 
@@ -94,4 +95,21 @@ public class TestDesktopInfo extends TestCase {
         assertEquals(100, bounds.width);
         assertEquals(60, bounds.height);
     }
+
+    public void testParse() {
+        DesktopInfo desktopInfo = DesktopInfo.parse("6x4+0+0, 4x6-4-1");
+        assertEquals(new Rectangle(-4, -1, 10, 6), desktopInfo.getBounds());
+        assertEquals(2, desktopInfo.getMonitors().size());
+        assertEquals(new Rectangle(0, 0, 6, 4), desktopInfo.getMonitors().get(0));
+        assertEquals(new Rectangle(-4, -1, 4, 6), desktopInfo.getMonitors().get(1));
+
+        for (String layout : new String[]{"", "6x4", "6x4+0", "0x4+0+0", "6x4+0+0;4x6-4-1"}) {
+            try {
+                DesktopInfo.parse(layout);
+                fail("expected an exception for " + layout);
+            } catch (BadUserInputException e) {
+                assertEquals(WallpaperTranslationKey.PROCESS_ERROR_BAD_LAYOUT, e.getKey());
+            }
+        }
+    }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * @since 10/18/26 8:40 PM
+ */
+public class TestEmbeddedThumbnail extends TestCase {
+    public void testFindExifThumbnail() throws Exception {
+        byte[] thumbnail = encode(40, 24, 0x2080C0);
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            byte[] jpeg = createJpeg(400, 240, thumbnail, order);
+            ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg));
+            assertTrue(order.toString(), Arrays.equals(thumbnail, EmbeddedThumbnail.findExifThumbnail(input)));
+            assertEquals(0, input.getStreamPosition());
+            assertEquals(ByteOrder.BIG_ENDIAN, input.getByteOrder());
+            input.close();
+        }
+
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encode(40, 24, 0)));
+        assertNull(EmbeddedThumbnail.findExifThumbnail(input));
+        input.close();
+
+        //an Intel order segment without a thumbnail must not garble the lengths of the segments after it
+        byte[] jpeg = createJpeg(400, 240, createExifSegment(null, ByteOrder.LITTLE_ENDIAN), createExifSegment(thumbnail, ByteOrder.BIG_ENDIAN));
+        input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg));
+        assertTrue(Arrays.equals(thumbnail, EmbeddedThumbnail.findExifThumbnail(input)));
+        input.close();
+    }
+
+    public void testCorruptThumbnail() throws Exception {
+        ImageUtil util = new ImageUtil(new StubDesktopInfo());
+        File file = File.createTempFile("wallpaper", ".jpg");
+        try {
+            byte[] thumbnail = encode(40, 24, 0x2080C0);
+            Arrays.fill(thumbnail, 2, thumbnail.length, (byte) 0x55);
+            writeFile(file, createJpeg(400, 240, thumbnail, ByteOrder.LITTLE_ENDIAN));
+            BufferedImage preview = util.previewImage(file);
+            assertEquals(10, preview.getWidth());
+            assertTrue((preview.getRGB(6, 2) & 0xFF) < 8);
+
+            //the regular preview already decodes this image at 1/8 scale, so there is no cheaper rough one
+            assertNull(util.coarsePreviewImage(file, null));
+
+            //a smaller image gets its rough preview from the main image data
+            writeFile(file, createJpeg(40, 24, thumbnail, ByteOrder.LITTLE_ENDIAN));
+            BufferedImage coarse = util.coarsePreviewImage(file, null);
+            assertEquals(10, coarse.getWidth());
+            assertTrue((coarse.getRGB(6, 2) & 0xFF) < 8);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testPreviewImage() throws Exception {
+        ImageUtil util = new ImageUtil(new StubDesktopInfo());
+        File file = File.createTempFile("wallpaper", ".jpg");
+        try {
+            //the main image is black, so a blue preview came from the thumbnail
+            writeFile(file, createJpeg(400, 240, encode(40, 24, 0x2080C0), ByteOrder.LITTLE_ENDIAN));
+            BufferedImage preview = util.previewImage(file);
+            assertEquals(10, preview.getWidth());
+            assertEquals(6, preview.getHeight());
+            assertTrue(Math.abs((preview.getRGB(6, 2) & 0xFF) - 0xC0) < 8);
+
+            //thumbnails that are too small or letterboxed are ignored
+            writeFile(file, createJpeg(400, 240, encode(5, 3, 0x2080C0), ByteOrder.LITTLE_ENDIAN));
+            assertTrue((util.previewImage(file).getRGB(6, 2) & 0xFF) < 8);
+            writeFile(file, createJpeg(400, 240, encode(40, 40, 0x2080C0), ByteOrder.LITTLE_ENDIAN));
+            assertTrue((util.previewImage(file).getRGB(6, 2) & 0xFF) < 8);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] encode(final int width, final int height, final int rgb) throws Exception {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, rgb);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpeg", output);
+        return output.toByteArray();
+    }
+
+    private static byte[] createJpeg(final int width, final int height, final byte[] thumbnail, final ByteOrder order) throws Exception {
+        return createJpeg(width, height, createExifSegment(thumbnail, order));
+    }
+
+    /**
+     * Builds a black JPEG with the given segments right after the JFIF one.
+     */
+    private static byte[] createJpeg(final int width, final int height, final byte[]... segments) throws Exception {
+        byte[] image = encode(width, height, 0);
+        int app0End = 4 + (((image[4] & 0xFF) << 8) | (image[5] & 0xFF));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(image, 0, app0End);
+        for (byte[] segment : segments) {
+            output.write(segment);
+        }
+        output.write(image, app0End, image.length - app0End);
+        return output.toByteArray();
+    }
+
+    /**
+     * Builds an EXIF segment holding an empty IFD0 followed by an IFD1
+     * pointing at the thumbnail, or by nothing if there is no thumbnail.
+     */
+    private static byte[] createExifSegment(final byte[] thumbnail, final ByteOrder order) throws Exception {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        boolean little = ByteOrder.LITTLE_ENDIAN == order;
+        tiff.write(little ? 'I' : 'M');
+        tiff.write(little ? 'I' : 'M');
+        writeShort(tiff, 42, little);
+        writeInt(tiff, 8, little); //IFD0
+        writeShort(tiff, 0, little);
+        writeInt(tiff, null != thumbnail ? 14 : 0, little); //IFD1
+        if (null != thumbnail) {
+            writeThumbnailIfd(tiff, thumbnail, little);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(0xFF);
+        output.write(0xE1);
+        writeShort(output, 2 + 6 + tiff.size(), false);
+        output.write(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        tiff.writeTo(output);
+        return output.toByteArray();
+    }
+
+    private static void writeThumbnailIfd(final ByteArrayOutputStream tiff, final byte[] thumbnail, final boolean little) throws Exception {
+        writeShort(tiff, 2, little);
+        writeShort(tiff, 0x0201, little);
+        writeShort(tiff, 4, little);
+        writeInt(tiff, 1, little);
+        writeInt(tiff, 44, little);
+        writeShort(tiff, 0x0202, little);
+        writeShort(tiff, 4, little);
+        writeInt(tiff, 1, little);
+        writeInt(tiff, thumbnail.length, little);
+        writeInt(tiff, 0, little);
+        tiff.write(thumbnail);
+    }
+
+    private static void writeShort(final ByteArrayOutputStream output, final int value, final boolean little) {
+        if (little) {
+            output.write(value);
+            output.write(value >> 8);
+        } else {
+            output.write(value >> 8);
+            output.write(value);
+        }
+    }
+
+    private static void writeInt(final ByteArrayOutputStream output, final int value, final boolean little) {
+        if (little) {
+            writeShort(output, value & 0xFFFF, true);
+            writeShort(output, value >>> 16, true);
+        } else {
+            writeShort(output, value >>> 16, false);
+            writeShort(output, value & 0xFFFF, false);
+        }
+    }
+
+    private static void writeFile(final File file, final byte[] data) throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -19,7 +19,16 @@ package org.widgetrefinery.wallpaper.common;
 
 import junit.framework.TestCase;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * @since 3/7/12 10:11 PM
@@ -61,6 +70,13 @@ public class TestImageUtil extends TestCase {
                 {b, g, g, g, g, g, b, b, b, b}  //row 0
         };
         checkImage(outputRGB, output);
+
+        //the resampler resizes and translates in the same pass
+        util.setResampleFilter(ResampleFilter.BOX);
+        output = util.formatImage(input);
+        assertEquals(10, output.getWidth());
+        assertEquals(6, output.getHeight());
+        checkImage(outputRGB, output);
     }
 
     public void testPreviewImage() throws Exception {
@@ -100,6 +116,255 @@ public class TestImageUtil extends TestCase {
         checkImage(outputRGB, output);
     }
 
+    public void testPreviewImageFile() throws Exception {
+        ImageUtil util = new ImageUtil(new StubDesktopInfo());
+        assertEquals(1, util.computeSubsampling(10, 6));
+        assertEquals(1, util.computeSubsampling(19, 60));
+        assertEquals(2, util.computeSubsampling(100, 12));
+        assertEquals(4, util.computeSubsampling(40, 24));
+
+        BufferedImage input = new BufferedImage(40, 24, BufferedImage.TYPE_INT_RGB);
+        File file = File.createTempFile("wallpaper", ".png");
+        try {
+            ImageIO.write(input, "png", file);
+            BufferedImage subsampled = util.readImage(file, true);
+            assertEquals(10, subsampled.getWidth());
+            assertEquals(6, subsampled.getHeight());
+            BufferedImage full = util.readImage(file, false);
+            assertEquals(40, full.getWidth());
+            assertEquals(24, full.getHeight());
+            BufferedImage output = util.previewImage(file);
+            assertEquals(10, output.getWidth());
+            assertEquals(6, output.getHeight());
+
+            //only a JPEG decoded at more than 1/8 scale has a cheaper rough preview
+            assertNull(util.coarsePreviewImage(file, null));
+            ImageIO.write(input, "jpeg", file);
+            BufferedImage coarse = util.coarsePreviewImage(file, null);
+            assertEquals(10, coarse.getWidth());
+            assertEquals(6, coarse.getHeight());
+            ImageIO.write(new BufferedImage(80, 48, BufferedImage.TYPE_INT_RGB), "jpeg", file);
+            assertNull(util.coarsePreviewImage(file, null));
+            ImageIO.write(new BufferedImage(12, 8, BufferedImage.TYPE_INT_RGB), "jpeg", file);
+            assertNull(util.coarsePreviewImage(file, null));
+            ImageIO.write(input, "png", file);
+
+            Cancellation cancellation = new Cancellation();
+            assertNotNull(util.previewImage(file, cancellation));
+            cancellation.cancel();
+            try {
+                util.previewImage(file, cancellation);
+                fail("cancelled preview should not complete");
+            } catch (CancellationException e) {
+                //expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testCancelDuringRead() throws Exception {
+        ImageUtil util = new ImageUtil(new StubDesktopInfo());
+        BufferedImage input = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, x * 31 + y * 17 * 256);
+            }
+        }
+        File file = File.createTempFile("wallpaper", ".png");
+        try {
+            ImageIO.write(input, "png", file);
+
+            //cancelled after the reader was registered but before the decode started,
+            //which clears the abort request the cancellation made
+            final Cancellation early = new Cancellation();
+            final ReadRecorder earlyRecorder = new ReadRecorder(null);
+            try {
+                util.read(file, early, new ImageUtil.ReadOperation<BufferedImage>() {
+                    @Override
+                    public BufferedImage read(final ImageReader reader) throws IOException {
+                        reader.addIIOReadProgressListener(earlyRecorder);
+                        early.cancel();
+                        return reader.read(0);
+                    }
+                });
+                fail("cancelled read should not complete");
+            } catch (CancellationException e) {
+                //expected
+            }
+            assertTrue(earlyRecorder.aborted);
+            assertFalse(earlyRecorder.completed);
+
+            //cancelled part way through the decode
+            final Cancellation late = new Cancellation();
+            final ReadRecorder lateRecorder = new ReadRecorder(late);
+            try {
+                util.read(file, late, new ImageUtil.ReadOperation<BufferedImage>() {
+                    @Override
+                    public BufferedImage read(final ImageReader reader) throws IOException {
+                        reader.addIIOReadProgressListener(lateRecorder);
+                        return reader.read(0);
+                    }
+                });
+                fail("cancelled read should not complete");
+            } catch (CancellationException e) {
+                //expected
+            }
+            assertTrue(lateRecorder.aborted);
+            assertFalse(lateRecorder.completed);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testResampleFilterFile() throws Exception {
+        //monitors of different heights would normally use region decoding
+        List<Rectangle> monitors = Arrays.asList(new Rectangle(0, 0, 100, 100), new Rectangle(100, 0, 100, 20));
+        BufferedImage input = new BufferedImage(300, 160, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, ((x * 7) & 0xFF) << 16 | ((y * 13) & 0xFF) << 8 | ((x + y) & 0xFF));
+            }
+        }
+        File file = File.createTempFile("wallpaper", ".png");
+        try {
+            ImageIO.write(input, "png", file);
+            for (ResampleFilter filter : ResampleFilter.values()) {
+                ImageUtil util = new ImageUtil(new DesktopInfo(monitors));
+                util.setResampleFilter(filter);
+                BufferedImage expected = util.formatImage(ImageIO.read(file));
+                BufferedImage actual = (BufferedImage) util.renderImage(file);
+                for (Rectangle monitor : monitors) {
+                    for (int y = monitor.y; y < monitor.y + monitor.height; y++) {
+                        for (int x = monitor.x; x < monitor.x + monitor.width; x++) {
+                            assertEquals(filter + " " + x + ", " + y, expected.getRGB(x, y), actual.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFormatVisibleRegions() throws Exception {
+        final int b = 0x0000FF;
+        final int g = 0x00FF00;
+        final int r = 0xFF0000;
+        final int w = 0xFFFFFF;
+        final int k = 0x000000;
+        int[][] inputRGB = new int[12][20];
+        for (int y = 0; y < 12; y++) {
+            for (int x = 0; x < 20; x++) {
+                inputRGB[y][x] = 6 > y ? (10 > x ? b : g) : (10 > x ? r : w);
+            }
+        }
+        File file = File.createTempFile("wallpaper", ".png");
+        try {
+            ImageIO.write(createImage(inputRGB), "png", file);
+            ImageUtil util = new ImageUtil(new StubDesktopInfo());
+            BufferedImage output = util.formatVisibleRegions(file);
+            assertEquals(10, output.getWidth());
+            assertEquals(6, output.getHeight());
+
+            //same as testFormatImage() except the off screen areas are black
+            int[][] outputRGB = new int[][]{
+                    {b, g, g, g, g, g, b, b, b, b}, //row 1
+                    {b, g, g, g, g, g, b, b, b, b}, //row 2
+                    {r, w, w, w, w, w, r, r, r, r}, //row 3
+                    {r, w, w, w, w, w, r, r, r, r}, //row 4
+                    {k, k, k, k, k, k, r, r, r, r}, //row 5
+                    {k, k, k, k, k, k, b, b, b, b}  //row 0
+            };
+            checkImage(outputRGB, output);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testStreamImage() throws Exception {
+        BufferedImage input = new BufferedImage(37, 29, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, (x * 7 << 16) | (y * 8 << 8) | ((x + y) * 3));
+            }
+        }
+        File file = File.createTempFile("wallpaper", ".png");
+        File bmp = File.createTempFile("wallpaper", ".bmp");
+        File png = File.createTempFile("wallpaper", ".png");
+        try {
+            ImageIO.write(input, "png", file);
+            ImageUtil util = new ImageUtil(new StubDesktopInfo());
+            util.setResampleFilter(ResampleFilter.LANCZOS3);
+            util.setBandBudget(1); //forces one output row per band
+            BufferedImage expected = util.formatImage(input);
+
+            assertTrue(util.streamImage(file, bmp));
+            BufferedImage output = ImageIO.read(bmp);
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(x + ", " + y, 0xFFFFFF & expected.getRGB(x, y), 0xFFFFFF & output.getRGB(x, y));
+                }
+            }
+
+            assertTrue(util.streamImage(file, png));
+            output = ImageIO.read(png);
+            for (Rectangle monitor : new StubDesktopInfo().getMonitors()) {
+                for (int y = monitor.y; y < monitor.y + monitor.height; y++) {
+                    for (int x = monitor.x; x < monitor.x + monitor.width; x++) {
+                        int canvasX = ImageUtil.wrap(x, expected.getWidth());
+                        int canvasY = ImageUtil.wrap(y, expected.getHeight());
+                        assertEquals(x + ", " + y, 0xFFFFFF & expected.getRGB(canvasX, canvasY), 0xFFFFFF & output.getRGB(canvasX, canvasY));
+                    }
+                }
+            }
+        } finally {
+            file.delete();
+            bmp.delete();
+            png.delete();
+        }
+    }
+
+    public void testTranslate() {
+        ImageUtil util = new ImageUtil(new StubDesktopInfo());
+        int[] types = new int[]{BufferedImage.TYPE_INT_RGB,
+                                BufferedImage.TYPE_3BYTE_BGR,
+                                BufferedImage.TYPE_USHORT_565_RGB,
+                                BufferedImage.TYPE_BYTE_BINARY};
+        for (int type : types) {
+            BufferedImage input = new BufferedImage(10, 6, type);
+            for (int y = 0; y < 6; y++) {
+                for (int x = 0; x < 10; x++) {
+                    input.setRGB(x, y, 0 == (x * 7 + y * 3) % 2 ? 0xFFFFFF : 0x000000);
+                }
+            }
+            int[][] expected = new int[6][10];
+            for (int y = 0; y < 6; y++) {
+                for (int x = 0; x < 10; x++) {
+                    //bounds are (-4, -1) so each pixel shifts right by 6 and down by 5
+                    expected[(y + 5) % 6][(x + 6) % 10] = 0xFFFFFF & input.getRGB(x, y);
+                }
+            }
+            BufferedImage output = util.translate(input);
+            assertSame(input, output);
+            checkImage(expected, output);
+        }
+
+        //sub-images share the parent's data buffer with an offset
+        BufferedImage parent = new BufferedImage(12, 8, BufferedImage.TYPE_INT_RGB);
+        BufferedImage input = parent.getSubimage(1, 1, 10, 6);
+        int[][] expected = new int[6][10];
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 10; x++) {
+                input.setRGB(x, y, y * 10 + x);
+                expected[(y + 5) % 6][(x + 6) % 10] = y * 10 + x;
+            }
+        }
+        checkImage(expected, util.translate(input));
+        assertEquals(0, parent.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(0, parent.getRGB(11, 7) & 0xFFFFFF);
+    }
+
     protected BufferedImage createImage(final int[][] inputRGB) {
         BufferedImage img = new BufferedImage(inputRGB[0].length, inputRGB.length, BufferedImage.TYPE_INT_RGB);
         for (int y = 0; y < img.getHeight(); y++) {
@@ -136,4 +401,58 @@ public class TestImageUtil extends TestCase {
         }
         return sb.toString();
     }
+
+    /**
+     * Records how a read ended, optionally cancelling it once it is under way.
+     */
+    private static class ReadRecorder implements IIOReadProgressListener {
+        private final Cancellation cancellation;
+        private       boolean      aborted;
+        private       boolean      completed;
+
+        public ReadRecorder(final Cancellation cancellation) {
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void imageProgress(final ImageReader source, final float percentageDone) {
+            if (null != this.cancellation && 10 < percentageDone) {
+                this.cancellation.cancel();
+            }
+        }
+
+        @Override
+        public void imageComplete(final ImageReader source) {
+            this.completed = true;
+        }
+
+        @Override
+        public void readAborted(final ImageReader source) {
+            this.aborted = true;
+        }
+
+        @Override
+        public void sequenceStarted(final ImageReader source, final int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(final ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(final ImageReader source, final int imageIndex) {
+        }
+
+        @Override
+        public void thumbnailStarted(final ImageReader source, final int imageIndex, final int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(final ImageReader source, final float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(final ImageReader source) {
+        }
+    }
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CancellationException;
+
+/**
+ * @since 10/18/26 9:50 PM
+ */
+public class TestJpegDecoder extends TestCase {
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int[]  DC_COUNTS            = {0, 0, 0, 0, 12, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}; //categories 0 to 11 as 4 bit codes
+    private static final int[]  AC_COUNTS            = {0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}; //end of block only
+
+    public void testScale() {
+        assertEquals(1, JpegDecoder.getScale(1));
+        assertEquals(2, JpegDecoder.getScale(3));
+        assertEquals(4, JpegDecoder.getScale(7));
+        assertEquals(8, JpegDecoder.getScale(100));
+    }
+
+    public void testDecode() throws Exception {
+        //odd sizes leave partial MCUs on the right and bottom edges
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            byte[] jpeg = encode(createImage(333, 250, type), false);
+            BufferedImage expected = ImageIO.read(new ByteArrayInputStream(jpeg));
+            double[] tolerances = {1, 2, 4, 8};
+            for (int ndx = 0; ndx < tolerances.length; ndx++) {
+                int scale = 1 << ndx;
+                BufferedImage actual = JpegDecoder.decode(new ByteArrayInputStream(jpeg), scale, null);
+                assertEquals((333 + scale - 1) / scale, actual.getWidth());
+                assertEquals((250 + scale - 1) / scale, actual.getHeight());
+                double error = computeError(expected, actual, scale);
+                assertTrue(type + " at 1/" + scale + ": " + error, error < tolerances[ndx]);
+            }
+        }
+    }
+
+    public void testRestartInterval() throws Exception {
+        BufferedImage img = createImage(333, 250, BufferedImage.TYPE_INT_RGB);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(img), param);
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+        IIOMetadataNode dri = new IIOMetadataNode("dri");
+        dri.setAttribute("interval", "3");
+        markers.insertBefore(dri, markers.getElementsByTagName("sos").item(0));
+        metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+        try {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(img, null, metadata), param);
+        } finally {
+            stream.close();
+            writer.dispose();
+        }
+        byte[] jpeg = output.toByteArray();
+
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(jpeg));
+        double[] tolerances = {1, 8};
+        for (int ndx = 0; ndx < tolerances.length; ndx++) {
+            int scale = 0 == ndx ? 1 : 8;
+            BufferedImage actual = JpegDecoder.decode(new ByteArrayInputStream(jpeg), scale, null);
+            double error = computeError(expected, actual, scale);
+            assertTrue("1/" + scale + ": " + error, error < tolerances[ndx]);
+        }
+    }
+
+    public void testNonInterleaved() throws Exception {
+        //the luma scan has 5 blocks per row, where MCU padding would give it 6
+        byte[] jpeg = createNonInterleavedJpeg(40, 24, DC_COUNTS, AC_COUNTS);
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(jpeg));
+        for (int scale : new int[]{1, 8}) {
+            BufferedImage actual = JpegDecoder.decode(new ByteArrayInputStream(jpeg), scale, null);
+            assertEquals((40 + scale - 1) / scale, actual.getWidth());
+            double error = computeError(expected, actual, scale);
+            assertTrue("1/" + scale + ": " + error, error < 4);
+        }
+    }
+
+    public void testInvalidHuffmanTable() throws Exception {
+        //three codes of length 1
+        int[] counts = new int[17];
+        counts[1] = 3;
+        try {
+            JpegDecoder.decode(new ByteArrayInputStream(createNonInterleavedJpeg(40, 24, DC_COUNTS, counts)), 1, null);
+            fail("invalid Huffman table should be rejected");
+        } catch (IIOException e) {
+            //expected
+        }
+    }
+
+    public void testFallback() throws Exception {
+        byte[] jpeg = encode(createImage(40, 24, BufferedImage.TYPE_INT_RGB), true);
+        assertNull(JpegDecoder.decode(new ByteArrayInputStream(jpeg), 2, null));
+
+        Cancellation cancellation = new Cancellation();
+        cancellation.cancel();
+        try {
+            JpegDecoder.decode(new ByteArrayInputStream(encode(createImage(40, 24, BufferedImage.TYPE_INT_RGB), false)), 2, cancellation);
+            fail("cancelled decode should not complete");
+        } catch (CancellationException e) {
+            //expected
+        }
+    }
+
+    private static BufferedImage createImage(final int width, final int height, final int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int b = (int) (128 + 100 * Math.sin(x / 17.0 + y / 23.0));
+                img.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(final BufferedImage img, final boolean progressive) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+        try {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            stream.close();
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Builds a baseline 4:2:0 JPEG with one scan per component. Each block is
+     * a flat colour, so the entropy coded data is just the DC differences,
+     * each followed by an end of block code. The DC code of category n is n
+     * itself, written in 4 bits.
+     */
+    private static byte[] createNonInterleavedJpeg(final int width, final int height, final int[] dcCounts, final int[] acCounts) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+
+        //a DC quantizer of 8 makes each quantized DC value the block level minus 128
+        writeSegment(output, 0xDB, new byte[]{0, 8, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                                              1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1});
+        writeSegment(output, 0xC0, new byte[]{8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3,
+                                              1, 0x22, 0, 2, 0x11, 0, 3, 0x11, 0});
+        writeSegment(output, 0xC4, createHuffmanTable(0x00, dcCounts));
+        writeSegment(output, 0xC4, createHuffmanTable(0x10, acCounts));
+
+        int[][] blockCounts = {{(width + 7) / 8, (height + 7) / 8}, {(width / 2 + 7) / 8, (height / 2 + 7) / 8}};
+        for (int component = 0; component < 3; component++) {
+            writeSegment(output, 0xDA, new byte[]{1, (byte) (component + 1), 0x00, 0, 63, 0});
+            int[] blocks = blockCounts[0 == component ? 0 : 1];
+            ByteArrayOutputStream entropy = new ByteArrayOutputStream();
+            long bits = 0;
+            int bitCount = 0;
+            int prediction = 0;
+            for (int blockY = 0; blockY < blocks[1]; blockY++) {
+                for (int blockX = 0; blockX < blocks[0]; blockX++) {
+                    int dc = (blockX * 37 + blockY * 71 + component * 50) % 200 - 80;
+                    int diff = dc - prediction;
+                    prediction = dc;
+                    int category = 32 - Integer.numberOfLeadingZeros(Math.abs(diff));
+                    bits = (bits << 4) | category;
+                    bits = (bits << category) | ((0 > diff ? diff - 1 : diff) & ((1 << category) - 1));
+                    bits <<= 1; //end of block
+                    bitCount += 4 + category + 1;
+                    while (8 <= bitCount) {
+                        writeEntropyByte(entropy, (int) (bits >> (bitCount - 8)) & 0xFF);
+                        bitCount -= 8;
+                    }
+                }
+            }
+            if (0 < bitCount) {
+                writeEntropyByte(entropy, (int) ((bits << (8 - bitCount)) | ((1 << (8 - bitCount)) - 1)) & 0xFF);
+            }
+            entropy.writeTo(output);
+        }
+        output.write(new byte[]{(byte) 0xFF, (byte) 0xD9});
+        return output.toByteArray();
+    }
+
+    private static byte[] createHuffmanTable(final int info, final int[] counts) {
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        table.write(info);
+        int total = 0;
+        for (int length = 1; length <= 16; length++) {
+            table.write(counts[length]);
+            total += counts[length];
+        }
+        for (int value = 0; value < total; value++) {
+            table.write(value);
+        }
+        return table.toByteArray();
+    }
+
+    private static void writeSegment(final ByteArrayOutputStream output, final int marker, final byte[] data) throws Exception {
+        output.write(0xFF);
+        output.write(marker);
+        output.write((data.length + 2) >> 8);
+        output.write(data.length + 2);
+        output.write(data);
+    }
+
+    private static void writeEntropyByte(final ByteArrayOutputStream output, final int value) {
+        output.write(value);
+        if (0xFF == value) {
+            output.write(0);
+        }
+    }
+
+    /**
+     * Compares each scaled pixel with the average of the full size pixels it
+     * stands for, returning the mean difference per channel.
+     */
+    private static double computeError(final BufferedImage expected, final BufferedImage actual, final int scale) {
+        double error = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                double[] sum = new double[3];
+                int count = 0;
+                for (int srcY = y * scale; srcY < Math.min(expected.getHeight(), (y + 1) * scale); srcY++) {
+                    for (int srcX = x * scale; srcX < Math.min(expected.getWidth(), (x + 1) * scale); srcX++) {
+                        int rgb = expected.getRGB(srcX, srcY);
+                        sum[0] += (rgb >> 16) & 0xFF;
+                        sum[1] += (rgb >> 8) & 0xFF;
+                        sum[2] += rgb & 0xFF;
+                        count++;
+                    }
+                }
+                int rgb = actual.getRGB(x, y);
+                error += Math.abs(sum[0] / count - ((rgb >> 16) & 0xFF));
+                error += Math.abs(sum[1] / count - ((rgb >> 8) & 0xFF));
+                error += Math.abs(sum[2] / count - (rgb & 0xFF));
+            }
+        }
+        return error / (3.0 * actual.getWidth() * actual.getHeight());
+    }
+}
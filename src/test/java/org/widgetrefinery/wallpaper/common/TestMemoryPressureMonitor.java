@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+
+import javax.management.Notification;
+import java.lang.management.MemoryNotificationInfo;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @since 10/18/26 2:35 PM
+ */
+public class TestMemoryPressureMonitor extends TestCase {
+    public void testNotification() throws Exception {
+        MemoryPressureMonitor monitor = new MemoryPressureMonitor(90);
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicInteger count = new AtomicInteger();
+            monitor.addListener(new MemoryPressureMonitor.Listener() {
+                @Override
+                public void memoryLow() {
+                    count.incrementAndGet();
+                    latch.countDown();
+                }
+            });
+
+            //only collection threshold notifications reach the listeners
+            monitor.getNotificationListener().handleNotification(new Notification(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, this, 1), null);
+            monitor.getNotificationListener().handleNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, this, 2), null);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(1, count.get());
+        } finally {
+            monitor.close();
+        }
+    }
+}
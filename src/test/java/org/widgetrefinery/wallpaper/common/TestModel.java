@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import org.widgetrefinery.util.BadUserInputException;
+import org.widgetrefinery.util.event.EventBus;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * @since 10/18/26 11:55 PM
+ */
+public class TestModel extends TempDirectoryTestCase {
+    public void testProcessLayouts() throws Exception {
+        File input = new File(this.directory, "input.png");
+        ImageIO.write(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png", input);
+        File wide = new File(this.directory, "wide.png");
+        File single = new File(this.directory, "single.bmp");
+
+        Model model = new Model(new EventBus(), this.directory);
+        model.setInputFile(input);
+        model.addLayout(wide, DesktopInfo.parse("200x100+0+0,100x50+200+0"));
+        model.addLayout(single, DesktopInfo.parse("64x48+0+0"));
+        model.process(false);
+        assertSize(300, 100, wide);
+        assertSize(64, 48, single);
+
+        //existing outputs are only replaced when asked to
+        try {
+            model.process(false);
+            fail("existing output should not be overwritten");
+        } catch (BadUserInputException e) {
+            //expected
+        }
+
+        //streaming decodes the input once per output
+        assertTrue(wide.delete());
+        assertTrue(single.delete());
+        model.setBandBudget(1);
+        model.process(true);
+        assertSize(300, 100, wide);
+        assertSize(64, 48, single);
+    }
+
+    private static void assertSize(final int width, final int height, final File file) throws Exception {
+        BufferedImage image = ImageIO.read(file);
+        assertEquals(file.getName(), width, image.getWidth());
+        assertEquals(file.getName(), height, image.getHeight());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+import org.widgetrefinery.util.BadUserInputException;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * @since 10/18/26 9:40 AM
+ */
+public class TestResampler extends TestCase {
+    public void testSolidColor() {
+        BufferedImage input = new BufferedImage(37, 23, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, 0x336699);
+            }
+        }
+        for (ResampleFilter filter : ResampleFilter.values()) {
+            Resampler resampler = new Resampler(filter);
+            checkSolid(filter, resampler.resize(input, 10, 6), 0x336699);
+            checkSolid(filter, resampler.resize(input, 80, 41), 0x336699);
+        }
+    }
+
+    public void testAreaAverage() {
+        BufferedImage input = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        int[] values = new int[]{0, 100, 200, 50};
+        for (int x = 0; x < 4; x++) {
+            input.setRGB(x, 0, values[x]);
+            input.setRGB(x, 1, values[x] << 8);
+        }
+        BufferedImage output = new Resampler(ResampleFilter.BOX).resize(input, 2, 1);
+        assertEquals(2, output.getWidth());
+        assertEquals(1, output.getHeight());
+        assertEquals(0x001919, 0xFFFFFF & output.getRGB(0, 0)); //green and blue are (0 + 100) / 4 = 25
+        assertEquals(0x003F3F, 0xFFFFFF & output.getRGB(1, 0)); //green and blue are (200 + 50) / 4 = 62.5
+    }
+
+    public void testAlpha() {
+        BufferedImage input = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, 0x80FF0000);
+            }
+        }
+        BufferedImage output = new Resampler(ResampleFilter.LANCZOS3).resize(input, 3, 3);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, output.getType());
+        checkSolid(ResampleFilter.LANCZOS3, output, 0x80FF0000);
+    }
+
+    public void testTransparentEdge() {
+        //opaque white next to fully transparent red, whose colour must not leak into the edge
+        BufferedImage input = new BufferedImage(8, 4, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, 4 > x ? 0xFFFFFFFF : 0x00FF0000);
+            }
+        }
+        for (ResampleFilter filter : ResampleFilter.values()) {
+            for (int width : new int[]{3, 21}) {
+                BufferedImage output = new Resampler(filter).resize(input, width, 5);
+                for (int x = 0; x < width; x++) {
+                    int rgb = output.getRGB(x, 2);
+                    if (0 != (rgb >>> 24)) {
+                        assertTrue(filter + " " + width + " " + x + ": " + Integer.toHexString(rgb), 0xF0 < (rgb & 0xFF) && 0xF0 < ((rgb >> 8) & 0xFF));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testFromName() {
+        assertEquals(ResampleFilter.LANCZOS3, ResampleFilter.fromName("Lanczos3"));
+        assertEquals(ResampleFilter.BOX, ResampleFilter.fromName("box"));
+        try {
+            ResampleFilter.fromName("sinc");
+            fail("expected an exception");
+        } catch (BadUserInputException e) {
+            assertEquals(WallpaperTranslationKey.PROCESS_ERROR_BAD_SCALE_FILTER, e.getKey());
+        }
+    }
+
+    protected void checkSolid(final ResampleFilter filter, final BufferedImage img, final int argb) {
+        int mask = img.getColorModel().hasAlpha() ? 0xFFFFFFFF : 0xFFFFFF;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                assertEquals(filter + " " + x + ", " + y, argb & mask, img.getRGB(x, y) & mask);
+            }
+        }
+    }
+}
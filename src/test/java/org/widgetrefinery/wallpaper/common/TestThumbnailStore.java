@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * @since 10/18/26 1:05 PM
+ */
+public class TestThumbnailStore extends TempDirectoryTestCase {
+    public void testStore() throws Exception {
+        ImageUtil imageUtil = new ImageUtil(new StubDesktopInfo());
+        BufferedImage thumbnail = new BufferedImage(10, 6, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 10; x++) {
+                thumbnail.setRGB(x, y, 0x808080);
+            }
+        }
+
+        //enough images to force the index to grow
+        File[] files = new File[1500];
+        ThumbnailStore store = new ThumbnailStore(this.directory);
+        for (int ndx = 0; ndx < files.length; ndx++) {
+            files[ndx] = new File(this.directory, "image" + ndx + ".png");
+            assertNull(store.get(files[ndx], imageUtil));
+            store.put(files[ndx], imageUtil, thumbnail);
+        }
+        assertEquals(files.length, store.size());
+        store.close();
+
+        store = new ThumbnailStore(this.directory);
+        assertEquals(files.length, store.size());
+        for (File file : files) {
+            BufferedImage stored = store.get(file, imageUtil);
+            assertNotNull(file.getName(), stored);
+            assertEquals(10, stored.getWidth());
+            assertEquals(6, stored.getHeight());
+            assertTrue(Math.abs((stored.getRGB(5, 3) & 0xFF) - 0x80) < 4); //jpeg is lossy
+        }
+
+        //a different thumbnail size or a modified file misses
+        assertNull(store.get(files[0], new ImageUtil(new StubDesktopInfo(20, -1))));
+        FileOutputStream output = new FileOutputStream(files[1]);
+        output.write(1);
+        output.close();
+        assertNull(store.get(files[1], imageUtil));
+
+        //only one process may use the store at a time
+        ThumbnailStore other = new ThumbnailStore(this.directory);
+        assertNull(other.get(files[2], imageUtil));
+        other.close();
+        store.close();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.common;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @since 10/18/26 11:45 AM
+ */
+public class TestTiledCanvas extends TestCase {
+    public void testLazyTiles() {
+        List<Rectangle> regions = Arrays.asList(new Rectangle(0, 0, 10, 10), new Rectangle(20, 12, 4, 4));
+        TiledCanvas canvas = new TiledCanvas(30, 20, regions, 8);
+        assertEquals(4, canvas.getNumXTiles());
+        assertEquals(3, canvas.getNumYTiles());
+        assertEquals(0, canvas.getAllocatedTileCount());
+
+        int[] row = new int[30];
+        Arrays.fill(row, 0x123456);
+        for (int y = 0; y < 20; y++) {
+            canvas.setRow(0, y, row, 0, row.length);
+        }
+        assertEquals(5, canvas.getAllocatedTileCount()); //4 tiles for the first region, 1 for the second
+        assertTrue(canvas.isVisible(1, 1));
+        assertFalse(canvas.isVisible(3, 0));
+
+        Raster data = canvas.getData();
+        int[] pixel = new int[3];
+        assertEquals(0x12, data.getPixel(9, 9, pixel)[0]);
+        assertEquals(0x56, data.getPixel(22, 13, pixel)[2]);
+        assertEquals(0, data.getPixel(29, 0, pixel)[0]); //hidden tiles read as black
+    }
+
+    public void testFormatTiledImage() throws Exception {
+        DesktopInfo info = new StubDesktopInfo();
+        ImageUtil imageUtil = new ImageUtil(info);
+
+        BufferedImage input = new BufferedImage(25, 10, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < input.getHeight(); y++) {
+            for (int x = 0; x < input.getWidth(); x++) {
+                input.setRGB(x, y, (x << 16) | (y << 8));
+            }
+        }
+        for (ResampleFilter filter : new ResampleFilter[]{null, ResampleFilter.BOX}) {
+            imageUtil.setResampleFilter(filter);
+            BufferedImage expected = imageUtil.formatImage(input);
+            TiledCanvas canvas = imageUtil.formatTiledImage(input);
+            assertEquals(expected.getWidth(), canvas.getWidth());
+            assertEquals(expected.getHeight(), canvas.getHeight());
+            Raster data = canvas.getData();
+            int[] pixel = new int[3];
+            for (Rectangle monitor : info.getMonitors()) {
+                for (int y = monitor.y; y < monitor.y + monitor.height; y++) {
+                    for (int x = monitor.x; x < monitor.x + monitor.width; x++) {
+                        int canvasX = ImageUtil.wrap(x, canvas.getWidth());
+                        int canvasY = ImageUtil.wrap(y, canvas.getHeight());
+                        int rgb = expected.getRGB(canvasX, canvasY);
+                        data.getPixel(canvasX, canvasY, pixel);
+                        assertEquals(filter + " " + x + ", " + y, rgb & 0xFFFFFF, (pixel[0] << 16) | (pixel[1] << 8) | pixel[2]);
+                    }
+                }
+            }
+
+            File output = File.createTempFile("tiled", ".png");
+            try {
+                imageUtil.saveImage(canvas, output);
+                BufferedImage saved = ImageIO.read(output);
+                assertEquals(expected.getRGB(0, 5) & 0xFFFFFF, saved.getRGB(0, 5) & 0xFFFFFF);
+            } finally {
+                output.delete();
+            }
+        }
+    }
+}
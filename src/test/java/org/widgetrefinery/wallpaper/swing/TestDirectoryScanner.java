@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.swing;
+
+import org.widgetrefinery.wallpaper.common.TempDirectoryTestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @since 10/18/26 10:45 PM
+ */
+public class TestDirectoryScanner extends TempDirectoryTestCase {
+    public void testScan() throws Exception {
+        Set<File> expected = new HashSet<File>();
+        for (int ndx = 0; ndx < 500; ndx++) {
+            File image = new File(this.directory, "image" + ndx + (0 == ndx % 2 ? ".png" : ".JPG"));
+            assertTrue(image.createNewFile());
+            expected.add(image);
+            assertTrue(new File(this.directory, "notes" + ndx + ".txt").createNewFile());
+        }
+        assertTrue(new File(this.directory, "README").createNewFile());
+        assertTrue(new File(this.directory, "folder.png").mkdir());
+
+        final List<File> scanned = Collections.synchronizedList(new ArrayList<File>());
+        DirectoryScanner scanner = new DirectoryScanner(this.directory, new PreviewPanel.ImageFileFilter()) {
+            @Override
+            protected void process(final List<File> files) {
+                scanned.addAll(files);
+            }
+        };
+        scanner.execute();
+        assertEquals(expected.size(), scanner.get().intValue());
+
+        //batches reach the event dispatch thread after the scan itself completes
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scanned.size() < expected.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, new HashSet<File>(scanned));
+    }
+}
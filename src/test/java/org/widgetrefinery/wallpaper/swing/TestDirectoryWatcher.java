@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.swing;
+
+import org.widgetrefinery.wallpaper.common.TempDirectoryTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @since 10/18/26 11:30 PM
+ */
+public class TestDirectoryWatcher extends TempDirectoryTestCase {
+    public void testWatch() throws Exception {
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        DirectoryWatcher watcher = new DirectoryWatcher(new DirectoryWatcher.Listener() {
+            @Override
+            public void filesChanged(final List<File> created, final List<File> deleted, final List<File> modified) {
+                for (File file : created) {
+                    changes.add("created " + file.getName());
+                }
+                for (File file : deleted) {
+                    changes.add("deleted " + file.getName());
+                }
+                for (File file : modified) {
+                    changes.add("modified " + file.getName());
+                }
+            }
+
+            @Override
+            public void overflow() {
+                changes.add("overflow");
+            }
+        }, new PreviewPanel.ImageFileFilter());
+        try {
+            watcher.watch(this.directory);
+
+            //files the filter rejects are not reported
+            File image = new File(this.directory, "image.png");
+            assertTrue(new File(this.directory, "notes.txt").createNewFile());
+            assertTrue(image.createNewFile());
+            waitFor(changes, "created image.png");
+
+            FileOutputStream output = new FileOutputStream(image);
+            output.write(1);
+            output.close();
+            waitFor(changes, "modified image.png");
+
+            assertTrue(image.delete());
+            waitFor(changes, "deleted image.png");
+            assertFalse(changes.contains("created notes.txt"));
+
+            //events from a directory no longer watched are dropped
+            File other = new File(this.directory, "other");
+            assertTrue(other.mkdir());
+            watcher.watch(other);
+            changes.clear();
+            assertTrue(new File(this.directory, "late.png").createNewFile());
+            assertTrue(new File(other, "new.png").createNewFile());
+            waitFor(changes, "created new.png");
+            assertFalse(changes.contains("created late.png"));
+            assertTrue(new File(other, "new.png").delete());
+            assertTrue(other.delete());
+        } finally {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Waits for the given change, since watch services may poll the file
+     * system rather than being told about changes.
+     */
+    private static void waitFor(final List<String> changes, final String change) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15000;
+        while (!changes.contains(change) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(changes.toString(), changes.contains(change));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.widgetrefinery.wallpaper.swing;
+
+import junit.framework.TestCase;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @since 10/18/26 11:55 PM
+ */
+public class TestPreviewListModel extends TestCase {
+    public void testModel() {
+        File directory = new File("images");
+        PreviewListModel model = new PreviewListModel();
+        final List<String> events = new ArrayList<String>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(final ListDataEvent e) {
+                events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(final ListDataEvent e) {
+                events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void contentsChanged(final ListDataEvent e) {
+                events.add("changed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+        });
+        model.reset(directory);
+
+        //each batch is one event; files from other directories are ignored
+        model.addAll(Arrays.asList(new File(directory, "c.png"), new File(directory, "A.png"), new File("elsewhere", "x.png")));
+        model.addAll(Arrays.asList(new File(directory, "b.png"), new File(directory, "e.png")));
+        assertEquals(Arrays.asList("added 0-1", "added 2-3"), events);
+        assertEquals(4, model.getSize());
+        assertEquals(new File(directory, "c.png"), model.getElementAt(0));
+        assertEquals(2, model.indexOf(new File(directory, "b.png")));
+        assertEquals(-1, model.indexOf(new File("elsewhere", "x.png")));
+
+        //sorting ignores case and is one event; later files are inserted in order
+        events.clear();
+        model.sort();
+        assertTrue(model.isSorted());
+        assertEquals(new File(directory, "A.png"), model.getElementAt(0));
+        assertEquals(new File(directory, "e.png"), model.getElementAt(3));
+        assertEquals(2, model.add(new File(directory, "B2.png")));
+        assertEquals(3, model.indexOf(new File(directory, "c.png")));
+        assertTrue(model.remove(new File(directory, "A.png")));
+        assertFalse(model.remove(new File(directory, "A.png")));
+        assertEquals(Arrays.asList("changed 0-3", "added 2-2", "removed 0-0"), events);
+        assertEquals(4, model.getSize());
+
+        events.clear();
+        model.reset(new File("other"));
+        assertEquals(Arrays.asList("removed 0-3"), events);
+        assertEquals(0, model.getSize());
+        assertFalse(model.isSorted());
+    }
+
+    public void testLargeFolder() {
+        File directory = new File("archive");
+        List<File> files = new ArrayList<File>();
+        for (int ndx = 0; ndx < 100000; ndx++) {
+            files.add(new File(directory, "image" + ((ndx * 7919) % 100000) + ".jpg"));
+        }
+        PreviewListModel model = new PreviewListModel();
+        model.reset(directory);
+        for (int ndx = 0; ndx < files.size(); ndx += 5000) {
+            model.addAll(files.subList(ndx, ndx + 5000));
+        }
+        model.sort();
+        assertEquals(100000, model.getSize());
+        assertEquals(new File(directory, "image0.jpg"), model.getElementAt(0));
+        assertEquals(99999, model.indexOf(new File(directory, "image99999.jpg")));
+    }
+}
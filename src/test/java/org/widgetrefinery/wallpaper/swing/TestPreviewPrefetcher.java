@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.swing;
+
+import org.widgetrefinery.wallpaper.common.DesktopInfo;
+import org.widgetrefinery.wallpaper.common.ImageUtil;
+import org.widgetrefinery.wallpaper.common.TempDirectoryTestCase;
+import org.widgetrefinery.wallpaper.common.ThumbnailStore;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JList;
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @since 10/18/26 6:10 PM
+ */
+public class TestPreviewPrefetcher extends TempDirectoryTestCase {
+    private ThumbnailStore thumbnailStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.thumbnailStore = new ThumbnailStore(this.directory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.thumbnailStore.close();
+        super.tearDown();
+    }
+
+    public void testPrefetch() throws Exception {
+        DefaultListModel<File> listModel = new DefaultListModel<File>();
+        for (int ndx = 0; ndx < 30; ndx++) {
+            listModel.addElement(new File(String.valueOf(ndx)));
+        }
+        JList<File> list = new JList<File>(listModel);
+        list.setFixedCellWidth(100);
+        list.setFixedCellHeight(50);
+        list.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        list.setVisibleRowCount(-1);
+        list.setSize(300, 500);
+
+        //3 columns of 20000 byte cells
+        StubRenderQueue renderQueue = new StubRenderQueue(this.thumbnailStore, 10 * 1024 * 1024);
+        PreviewPrefetcher prefetcher = new PreviewPrefetcher(list, renderQueue);
+        Rectangle visibleRect = new Rectangle(0, 0, 300, 100);
+
+        //standing still prefetches a couple of rows below the view
+        long time = 1000000000L;
+        prefetcher.updateVelocity(0, time);
+        prefetcher.updateVelocity(0, time + 1000000000L);
+        assertEquals(new Rectangle(0, 100, 300, 100), prefetcher.getPrefetchRect(visibleRect));
+        prefetcher.prefetch(prefetcher.getPrefetchRect(visibleRect));
+        assertEquals(Arrays.asList("6", "7", "8", "9", "10", "11"), renderQueue.prefetched);
+
+        //scrolling fast looks further ahead, up to the row limit
+        prefetcher.updateVelocity(250, time + 1100000000L);
+        visibleRect.y = 250;
+        assertEquals(new Rectangle(0, 350, 300, 600), prefetcher.getPrefetchRect(visibleRect));
+
+        //scrolling up prefetches above the view
+        prefetcher.updateVelocity(240, time + 3000000000L);
+        visibleRect.y = 240;
+        Rectangle prefetchRect = prefetcher.getPrefetchRect(visibleRect);
+        assertEquals(240, prefetchRect.y + prefetchRect.height);
+
+        //a small cache budget leaves no room to prefetch
+        prefetcher = new PreviewPrefetcher(list, new StubRenderQueue(this.thumbnailStore, 200000));
+        assertNull(prefetcher.getPrefetchRect(visibleRect));
+    }
+
+    private static class StubRenderQueue extends PreviewRenderQueue {
+        private final List<String> prefetched = new ArrayList<String>();
+
+        public StubRenderQueue(final ThumbnailStore thumbnailStore, final long cacheBudget) {
+            super(new ImageUtil(new DesktopInfo(Arrays.asList(new Rectangle(0, 0, 100, 50)))), thumbnailStore, cacheBudget, 1);
+        }
+
+        @Override
+        public void prefetch(final PreviewRenderRequest request) {
+            this.prefetched.add(request.getFile().getName());
+        }
+    }
+}
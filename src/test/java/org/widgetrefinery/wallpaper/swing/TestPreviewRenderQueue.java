@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.swing;
+
+import org.widgetrefinery.wallpaper.common.DesktopInfo;
+import org.widgetrefinery.wallpaper.common.ImageUtil;
+import org.widgetrefinery.wallpaper.common.TempDirectoryTestCase;
+import org.widgetrefinery.wallpaper.common.ThumbnailStore;
+
+import javax.imageio.ImageIO;
+import javax.swing.JList;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @since 10/18/26 6:50 PM
+ */
+public class TestPreviewRenderQueue extends TempDirectoryTestCase {
+    private ThumbnailStore thumbnailStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.thumbnailStore = new ThumbnailStore(this.directory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.thumbnailStore.close();
+        super.tearDown();
+    }
+
+    public void testZoomLevels() throws Exception {
+        File file = new File(this.directory, "image.png");
+        BufferedImage input = new BufferedImage(80, 40, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 80; x++) {
+                input.setRGB(x, y, 0x2080C0);
+            }
+        }
+        ImageIO.write(input, "png", file);
+
+        ImageUtil large = createImageUtil(40, 20);
+        ImageUtil small = createImageUtil(20, 10);
+        PreviewRenderQueue renderQueue = new PreviewRenderQueue(large, this.thumbnailStore, 0, 1);
+        renderQueue.setProgressive(false);
+        JList<File> list = new JList<File>(new File[]{file});
+        list.setFixedCellWidth(40);
+        list.setFixedCellHeight(20);
+        PreviewRenderRequest request = new PreviewRenderRequest(list, 0, file);
+
+        renderQueue.render(request, large);
+        BufferedImage largeImage = renderQueue.render(request);
+        assertEquals(40, largeImage.getWidth());
+
+        //the larger thumbnail stands in until the smaller one is derived from it, without decoding the file again
+        renderQueue.setImageUtil(small);
+        assertSame(largeImage, renderQueue.render(request));
+        assertTrue(file.delete());
+        renderQueue.render(request, small);
+        BufferedImage smallImage = renderQueue.render(request);
+        assertEquals(20, smallImage.getWidth());
+        assertEquals(10, smallImage.getHeight());
+        assertTrue(Math.abs((smallImage.getRGB(10, 5) & 0xFF) - 0xC0) < 4); //the image colour, so not a placeholder
+
+        //switching back is a cache hit
+        renderQueue.setImageUtil(large);
+        assertSame(largeImage, renderQueue.render(request));
+    }
+
+    public void testProgressive() throws Exception {
+        File file = new File(this.directory, "image.jpg");
+        ImageIO.write(new BufferedImage(160, 80, BufferedImage.TYPE_INT_RGB), "jpeg", file);
+
+        ImageUtil imageUtil = createImageUtil(40, 20);
+        PreviewRenderQueue renderQueue = new PreviewRenderQueue(imageUtil, this.thumbnailStore, 0, 1);
+        JList<File> list = new JList<File>(new File[]{file});
+        list.setFixedCellWidth(40);
+        list.setFixedCellHeight(20);
+        PreviewRenderRequest request = new PreviewRenderRequest(list, 0, file);
+
+        //the rough thumbnail is published first and painting it asks for a refinement
+        renderQueue.render(request, imageUtil);
+        BufferedImage coarse = renderQueue.render(request);
+        assertEquals(40, coarse.getWidth());
+        assertSame(coarse, renderQueue.render(request));
+        renderQueue.render(request.createRefinement(), imageUtil);
+        BufferedImage refined = renderQueue.render(request);
+        assertNotSame(coarse, refined);
+        assertEquals(40, refined.getWidth());
+        assertSame(refined, renderQueue.render(request));
+
+        //a changed file is rendered again
+        renderQueue.invalidate(file);
+        assertNotSame(refined, renderQueue.render(request));
+    }
+
+    public void testVisibleCellsBypassAdmission() throws Exception {
+        File[] files = new File[4];
+        for (int ndx = 0; ndx < files.length; ndx++) {
+            files[ndx] = new File(this.directory, "image" + ndx + ".png");
+            int width = 2 > ndx ? 2000 : 80;
+            ImageIO.write(new BufferedImage(width, width / 2, BufferedImage.TYPE_INT_RGB), "png", files[ndx]);
+        }
+
+        //room for two 40x20 thumbnails; cells 0 to 2 are on screen and cell 3 is prefetched
+        ImageUtil imageUtil = createImageUtil(40, 20);
+        PreviewRenderQueue renderQueue = new PreviewRenderQueue(imageUtil, this.thumbnailStore, 2 * 40 * 20 * 4, 1);
+        renderQueue.setProgressive(false);
+        renderQueue.setVisibleRect(new Rectangle(0, 0, 40, 60), new Rectangle(0, 60, 40, 20));
+        JList<File> list = new JList<File>(files);
+        list.setFixedCellWidth(40);
+        list.setFixedCellHeight(20);
+        list.setSize(40, 80);
+        CountingRequest[] requests = new CountingRequest[files.length];
+        for (int ndx = 0; ndx < files.length; ndx++) {
+            requests[ndx] = new CountingRequest(list, ndx, files[ndx]);
+        }
+
+        //two expensive, popular thumbnails fill the cache
+        renderQueue.render(requests[0], imageUtil);
+        renderQueue.render(requests[1], imageUtil);
+        for (int count = 0; count < 15; count++) {
+            renderQueue.render(requests[0]);
+            renderQueue.render(requests[1]);
+        }
+
+        //a cheap thumbnail on screen is still cached, so its cell stops asking for it
+        renderQueue.render(requests[2], imageUtil);
+        assertEquals(1, requests[2].doneCount);
+        BufferedImage image = renderQueue.render(requests[2]);
+        assertSame(image, renderQueue.render(requests[2]));
+
+        //a prefetched thumbnail has to earn its place against the now popular ones; it is
+        //not cached and its cell is not repainted when refused
+        for (int count = 0; count < 15; count++) {
+            renderQueue.render(requests[2]);
+        }
+        renderQueue.render(requests[3], imageUtil);
+        assertEquals(0, requests[3].doneCount);
+        assertSame(image, renderQueue.render(requests[2]));
+        assertNotSame(renderQueue.render(requests[3]), renderQueue.render(requests[3]));
+    }
+
+    public void testWorkers() throws Exception {
+        File[] files = new File[6];
+        for (int ndx = 0; ndx < files.length; ndx++) {
+            files[ndx] = new File(this.directory, "image" + ndx + ".png");
+            ImageIO.write(new BufferedImage(80, 40, BufferedImage.TYPE_INT_RGB), "png", files[ndx]);
+        }
+
+        PreviewRenderQueue renderQueue = new PreviewRenderQueue(createImageUtil(40, 20), this.thumbnailStore, 0, 3);
+        assertEquals(3, renderQueue.getWorkerCount());
+        JList<File> list = new JList<File>(files);
+        list.setFixedCellWidth(40);
+        list.setFixedCellHeight(20);
+        final CountDownLatch latch = new CountDownLatch(files.length);
+        PreviewRenderRequest[] requests = new PreviewRenderRequest[files.length];
+        for (int ndx = 0; ndx < files.length; ndx++) {
+            requests[ndx] = new PreviewRenderRequest(list, ndx, files[ndx]) {
+                @Override
+                public void done() {
+                    latch.countDown();
+                }
+            };
+        }
+
+        renderQueue.start();
+        List<Thread> workers = findWorkers();
+        assertEquals(3, workers.size());
+        try {
+            for (PreviewRenderRequest request : requests) {
+                renderQueue.render(request);
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            for (PreviewRenderRequest request : requests) {
+                assertSame(renderQueue.render(request), renderQueue.render(request));
+            }
+        } finally {
+            renderQueue.stop();
+        }
+        for (Thread worker : workers) {
+            worker.join(10000);
+            assertFalse(worker.getName(), worker.isAlive());
+        }
+        assertTrue(findWorkers().isEmpty());
+    }
+
+    private static List<Thread> findWorkers() {
+        List<Thread> workers = new ArrayList<Thread>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("preview-render-") && thread.isAlive()) {
+                workers.add(thread);
+            }
+        }
+        return workers;
+    }
+
+    private static ImageUtil createImageUtil(final int width, final int height) {
+        return new ImageUtil(new DesktopInfo(Arrays.asList(new Rectangle(0, 0, width, height))));
+    }
+
+    private static class CountingRequest extends PreviewRenderRequest {
+        private int doneCount;
+
+        public CountingRequest(final JList<File> list, final int index, final File file) {
+            super(list, index, file);
+        }
+
+        @Override
+        public void done() {
+            this.doneCount++;
+        }
+    }
+}
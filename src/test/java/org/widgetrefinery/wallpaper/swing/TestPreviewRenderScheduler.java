@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012  Widget Refinery
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.widgetrefinery.wallpaper.swing;
+
+import junit.framework.TestCase;
+
+import java.awt.Rectangle;
+import java.io.File;
+
+/**
+ * @since 10/18/26 4:30 PM
+ */
+public class TestPreviewRenderScheduler extends TestCase {
+    public void testScheduling() throws Exception {
+        PreviewRenderScheduler scheduler = new PreviewRenderScheduler();
+        scheduler.setVisibleRect(new Rectangle(0, 100, 300, 100));
+
+        //a 3 column grid of 100x50 cells; the third and fourth rows are visible
+        for (int ndx = 0; ndx < 12; ndx++) {
+            scheduler.schedule(createRequest(ndx));
+        }
+        //repeated paints of the same cell do not queue it again
+        scheduler.schedule(createRequest(7));
+        scheduler.schedule(createRequest(7));
+        assertEquals(12, scheduler.getPendingCount());
+
+        //the cells nearest the centre come first and the hidden ones are dropped
+        PreviewRenderRequest first = scheduler.take();
+        assertEquals("7", first.getFile().getName());
+        assertEquals(5, scheduler.getPendingCount());
+        PreviewRenderRequest second = scheduler.take();
+        assertEquals("10", second.getFile().getName());
+
+        //a file being rendered is not handed out again until it is done
+        scheduler.schedule(createRequest(7));
+        for (int count = 0; count < 4; count++) {
+            assertFalse("7".equals(scheduler.take().getFile().getName()));
+        }
+        assertEquals(1, scheduler.getPendingCount());
+        scheduler.done(first.getFile());
+        PreviewRenderRequest third = scheduler.take();
+        assertEquals("7", third.getFile().getName());
+
+        //scrolling away drops what is left and cancels the hidden cells being rendered
+        scheduler.schedule(createRequest(0));
+        scheduler.setVisibleRect(new Rectangle(0, 150, 300, 100));
+        assertTrue(third.getCancellation().isCancelled());
+        assertFalse(second.getCancellation().isCancelled());
+        scheduler.schedule(createRequest(13));
+        assertEquals("13", scheduler.take().getFile().getName());
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    public void testPrefetch() throws Exception {
+        PreviewRenderScheduler scheduler = new PreviewRenderScheduler();
+        scheduler.setVisibleRect(new Rectangle(0, 0, 300, 100), new Rectangle(0, 100, 300, 50));
+
+        //prefetched cells wait until the visible ones are served; cells past the prefetch area are dropped
+        scheduler.schedule(createRequest(7));
+        scheduler.schedule(createRequest(3));
+        scheduler.schedule(createRequest(12));
+        scheduler.schedule(createRequest(0));
+        assertEquals("3", scheduler.take().getFile().getName());
+        assertEquals("0", scheduler.take().getFile().getName());
+        PreviewRenderRequest prefetched = scheduler.take();
+        assertEquals("7", prefetched.getFile().getName());
+        assertEquals(0, scheduler.getPendingCount());
+
+        //a prefetch in progress is only cancelled once it leaves the prefetch area
+        scheduler.setVisibleRect(new Rectangle(0, 50, 300, 50), new Rectangle(0, 100, 300, 50));
+        assertFalse(prefetched.getCancellation().isCancelled());
+        scheduler.setVisibleRect(new Rectangle(0, 0, 300, 100), null);
+        assertTrue(prefetched.getCancellation().isCancelled());
+    }
+
+    public void testRefinement() throws Exception {
+        PreviewRenderScheduler scheduler = new PreviewRenderScheduler();
+        scheduler.setVisibleRect(new Rectangle(0, 0, 300, 100), new Rectangle(0, 100, 300, 50));
+
+        //refinements wait for the visible placeholders but beat the prefetched cells
+        scheduler.schedule(createRequest(7));
+        scheduler.schedule(createRequest(4).createRefinement());
+        scheduler.schedule(createRequest(5));
+        PreviewRenderRequest first = scheduler.take();
+        assertEquals("5", first.getFile().getName());
+        assertFalse(first.isRefinement());
+        PreviewRenderRequest second = scheduler.take();
+        assertEquals("4", second.getFile().getName());
+        assertTrue(second.isRefinement());
+        assertEquals("7", scheduler.take().getFile().getName());
+    }
+
+    private static PreviewRenderRequest createRequest(final int ndx) {
+        Rectangle cellBounds = new Rectangle(ndx % 3 * 100, ndx / 3 * 50, 100, 50);
+        return new PreviewRenderRequest(null, ndx, new File(String.valueOf(ndx)), cellBounds);
+    }
+}